@@ -0,0 +1,144 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCDataStoreFactory;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISDataStoreFactory;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISDialect;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISPSDialect;
+
+/**
+ * Creates the data stores and the generated tables used by the benchmarks.
+ *
+ * The databases are written in target/benchmark and are kept between two runs,
+ * a table of 10^7 points takes a while to generate.
+ */
+final class BenchmarkDataStores {
+
+    static final File BASE_DIRECTORY = new File("target/benchmark");
+
+    private BenchmarkDataStores() {
+    }
+
+    /**
+     * Open a data store on the database target/benchmark/{database}
+     *
+     * @param database name of the database file
+     * @param extraParams data store parameters to add to the default ones
+     * @return
+     * @throws IOException
+     */
+    static JDBCDataStore create(String database, Map<String, Serializable> extraParams)
+            throws IOException {
+        H2GISDataStoreFactory factory = new H2GISDataStoreFactory();
+        factory.setBaseDirectory(BASE_DIRECTORY.getAbsoluteFile());
+        Map<String, Serializable> params = new HashMap<String, Serializable>();
+        params.put(JDBCDataStoreFactory.NAMESPACE.key, "http://www.geotools.org/h2gis");
+        params.put(JDBCDataStoreFactory.DATABASE.key, database);
+        params.put(JDBCDataStoreFactory.DBTYPE.key, "h2gis");
+        params.put(JDBCDataStoreFactory.USER.key, "h2gis");
+        params.put(JDBCDataStoreFactory.PASSWD.key, "h2gis");
+        params.put(H2GISDataStoreFactory.JMX.key, Boolean.FALSE);
+        params.putAll(extraParams);
+        return factory.createDataStore(params);
+    }
+
+    /**
+     * The H2GIS dialect of the data store, whatever the statements are
+     * prepared or not
+     *
+     * @param ds
+     * @return
+     */
+    static H2GISDialect getH2GISDialect(JDBCDataStore ds) {
+        return H2GISPSDialect.getH2GISDialect(ds);
+    }
+
+    /**
+     * Create the table {tableName}(ID, NAME, THE_GEOM) filled with points
+     * spread on a 1000 x 1000 grid, unless the table already holds the
+     * expected number of rows.
+     *
+     * @param ds
+     * @param tableName
+     * @param count number of points
+     * @throws IOException
+     * @throws SQLException
+     */
+    static void createPointTable(JDBCDataStore ds, String tableName, int count)
+            throws IOException, SQLException {
+        Connection cx = ds.getDataSource().getConnection();
+        try {
+            Statement st = cx.createStatement();
+            try {
+                if (countRows(st, tableName) == count) {
+                    return;
+                }
+                st.execute("DROP TABLE IF EXISTS " + tableName);
+                st.execute("CREATE TABLE " + tableName + " (ID INT PRIMARY KEY, NAME VARCHAR,"
+                        + " THE_GEOM POINT CHECK ST_SRID(THE_GEOM) = 4326)");
+                st.execute("INSERT INTO " + tableName + " SELECT X, 'point ' || X,"
+                        + " ST_SetSRID(ST_MakePoint(MOD(X * 7919, 1000000) / 1000.0,"
+                        + " MOD(X * 104729, 1000000) / 1000.0), 4326)"
+                        + " FROM SYSTEM_RANGE(1, " + count + ")");
+                st.execute("CREATE SPATIAL INDEX ON " + tableName + "(THE_GEOM)");
+            } finally {
+                st.close();
+            }
+        } finally {
+            cx.close();
+        }
+        getH2GISDialect(ds).resetGeometryColumns(null);
+    }
+
+    private static long countRows(Statement st, String tableName) throws SQLException {
+        ResultSet rs = st.getConnection().getMetaData().getTables(null, null, tableName, null);
+        try {
+            if (!rs.next()) {
+                return -1;
+            }
+        } finally {
+            rs.close();
+        }
+        rs = st.executeQuery("SELECT COUNT(*) FROM " + tableName);
+        try {
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            rs.close();
+        }
+    }
+}
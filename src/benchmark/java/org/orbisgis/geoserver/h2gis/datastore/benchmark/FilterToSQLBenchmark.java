@@ -0,0 +1,133 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.benchmark;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.geotools.data.jdbc.FilterToSQL;
+import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.jdbc.BasicSQLDialect;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.PreparedStatementSQLDialect;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISDataStoreFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Encoding of spatial and function filters into the WHERE clause of a query,
+ * with the literal and the prepared statement dialects.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FilterToSQLBenchmark {
+
+    @Param({"false", "true"})
+    public boolean preparedStatements;
+
+    private JDBCDataStore ds;
+    private SimpleFeatureType featureType;
+    private Filter bbox;
+    private Filter intersects;
+    private Filter dwithin;
+    private Filter disjoint;
+    private Filter function;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Serializable> params = new HashMap<String, Serializable>();
+        params.put(H2GISDataStoreFactory.PREPARED_STATEMENTS.key, preparedStatements);
+        params.put(H2GISDataStoreFactory.ENCODE_FUNCTIONS.key, Boolean.TRUE);
+        ds = BenchmarkDataStores.create("filtertosql", params);
+        BenchmarkDataStores.createPointTable(ds, "POINTS_FILTER", 1000);
+        featureType = ds.getSchema("POINTS_FILTER");
+        bbox = ECQL.toFilter("BBOX(THE_GEOM, 100, 100, 200, 200)");
+        intersects = ECQL.toFilter("INTERSECTS(THE_GEOM, POLYGON((100 100, 100 200, 200 200,"
+                + " 200 100, 150 50, 100 100)))");
+        dwithin = ECQL.toFilter("DWITHIN(THE_GEOM, POINT(500 500), 10, meters)");
+        disjoint = ECQL.toFilter("DISJOINT(THE_GEOM, POLYGON((0 0, 0 900, 900 900, 900 0, 0 0)))");
+        function = ECQL.toFilter("strToLowerCase(NAME) = 'point 42' AND area(THE_GEOM) < 10");
+    }
+
+    @TearDown
+    public void tearDown() {
+        ds.dispose();
+    }
+
+    private FilterToSQL createFilterToSQL() {
+        FilterToSQL toSQL;
+        if (ds.getSQLDialect() instanceof PreparedStatementSQLDialect) {
+            toSQL = ((PreparedStatementSQLDialect) ds.getSQLDialect()).createPreparedFilterToSQL();
+        } else {
+            toSQL = ((BasicSQLDialect) ds.getSQLDialect()).createFilterToSQL();
+        }
+        toSQL.setSqlNameEscape("\"");
+        toSQL.setFeatureType(featureType);
+        return toSQL;
+    }
+
+    @Benchmark
+    public String encodeBBOX() throws Exception {
+        return createFilterToSQL().encodeToString(bbox);
+    }
+
+    @Benchmark
+    public String encodeIntersects() throws Exception {
+        return createFilterToSQL().encodeToString(intersects);
+    }
+
+    @Benchmark
+    public String encodeDWithin() throws Exception {
+        return createFilterToSQL().encodeToString(dwithin);
+    }
+
+    @Benchmark
+    public String encodeDisjoint() throws Exception {
+        return createFilterToSQL().encodeToString(disjoint);
+    }
+
+    @Benchmark
+    public String encodeFunction() throws Exception {
+        return createFilterToSQL().encodeToString(function);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.benchmark;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.geotools.jdbc.JDBCDataStore;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISDataStoreFactory;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISDialect;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISPSDialect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+
+/**
+ * Geometry encoding into SQL (WKT literal or WKB parameter) and decoding of
+ * the geometries read from a result set, with and without ST_AsBinary.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GeometryValueBenchmark {
+
+    private static final int ROW_COUNT = 1000;
+
+    @Param({"false", "true"})
+    public boolean nativeGeometry;
+
+    private JDBCDataStore ds;
+    private H2GISDialect dialect;
+    private H2GISPSDialect psDialect;
+    private GeometryDescriptor descriptor;
+    private GeometryFactory factory;
+    private String selectSQL;
+    private Geometry polygon;
+    private Connection cx;
+    private PreparedStatement wkbStatement;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Serializable> params = new HashMap<String, Serializable>();
+        params.put(H2GISDataStoreFactory.NATIVE_GEOMETRY.key, nativeGeometry);
+        ds = BenchmarkDataStores.create("geometryvalue", params);
+        dialect = BenchmarkDataStores.getH2GISDialect(ds);
+        psDialect = new H2GISPSDialect(ds, dialect);
+        factory = ds.getGeometryFactory();
+        cx = ds.getDataSource().getConnection();
+        Statement st = cx.createStatement();
+        try {
+            st.execute("DROP TABLE IF EXISTS POLYGONS");
+            st.execute("CREATE TABLE POLYGONS (ID INT PRIMARY KEY, THE_GEOM POLYGON)");
+            st.execute("INSERT INTO POLYGONS SELECT X,"
+                    + " ST_Buffer(ST_MakePoint(MOD(X, 100), X / 100), 0.4)"
+                    + " FROM SYSTEM_RANGE(1, " + ROW_COUNT + ")");
+        } finally {
+            st.close();
+        }
+        dialect.resetGeometryColumns(null);
+        SimpleFeatureType featureType = ds.getSchema("POLYGONS");
+        descriptor = featureType.getGeometryDescriptor();
+        StringBuffer sql = new StringBuffer("SELECT ");
+        dialect.encodeGeometryColumn(descriptor, null, 0, null, sql);
+        sql.append(" THE_GEOM FROM POLYGONS");
+        selectSQL = sql.toString();
+        polygon = new WKTReader(factory).read("POLYGON((0 0, 0 10, 5 12, 10 10, 12 5, 10 0, 0 0),"
+                + " (2 2, 2 4, 4 4, 4 2, 2 2))").buffer(0.5);
+        wkbStatement = cx.prepareStatement("SELECT ST_GeomFromWKB(?)");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        wkbStatement.close();
+        cx.close();
+        ds.dispose();
+    }
+
+    @Benchmark
+    public void decodeGeometryValue(Blackhole bh) throws Exception {
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery(selectSQL);
+            while (rs.next()) {
+                bh.consume(dialect.decodeGeometryValue(descriptor, rs, "THE_GEOM", factory, cx));
+            }
+            rs.close();
+        } finally {
+            st.close();
+        }
+    }
+
+    @Benchmark
+    public StringBuffer encodeGeometryValue() throws Exception {
+        StringBuffer sql = new StringBuffer();
+        dialect.encodeGeometryValue(polygon, 2, 4326, sql);
+        return sql;
+    }
+
+    @Benchmark
+    public PreparedStatement setGeometryValue() throws Exception {
+        psDialect.setGeometryValue(polygon, 2, 4326, polygon.getClass(), wkbStatement, 1);
+        return wkbStatement;
+    }
+}
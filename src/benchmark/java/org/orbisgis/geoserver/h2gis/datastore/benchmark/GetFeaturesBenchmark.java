@@ -0,0 +1,122 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.benchmark;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.jdbc.JDBCDataStore;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISDataStoreFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opengis.filter.Filter;
+
+/**
+ * Full scans of a generated point table, with and without a bbox filter,
+ * for each performance profile of the data store, with and without the
+ * AUTO_SERVER mode.
+ *
+ * Use -p featureCount=100000 to restrict a run to the smallest table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GetFeaturesBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public int featureCount;
+
+    @Param({"default", "read-mostly"})
+    public String profile;
+
+    @Param({"false", "true"})
+    public boolean preparedStatements;
+
+    @Param({"true", "false"})
+    public boolean autoServer;
+
+    private JDBCDataStore ds;
+    private SimpleFeatureSource featureSource;
+    private Filter bbox;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Serializable> params = new HashMap<String, Serializable>();
+        params.put(H2GISDataStoreFactory.PROFILE.key, profile);
+        params.put(H2GISDataStoreFactory.PREPARED_STATEMENTS.key, preparedStatements);
+        params.put(H2GISDataStoreFactory.AUTO_SERVER.key, autoServer);
+        ds = BenchmarkDataStores.create("features" + featureCount, params);
+        BenchmarkDataStores.createPointTable(ds, "POINTS", featureCount);
+        featureSource = ds.getFeatureSource("POINTS");
+        // about 1% of the points
+        bbox = ECQL.toFilter("BBOX(THE_GEOM, 450, 450, 550, 550)");
+    }
+
+    @TearDown
+    public void tearDown() {
+        ds.dispose();
+    }
+
+    private void scan(Filter filter, Blackhole bh) throws Exception {
+        SimpleFeatureIterator it = featureSource.getFeatures(new Query("POINTS", filter)).features();
+        try {
+            while (it.hasNext()) {
+                bh.consume(it.next());
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    @Benchmark
+    public void fullScan(Blackhole bh) throws Exception {
+        scan(Filter.INCLUDE, bh);
+    }
+
+    @Benchmark
+    public void bboxScan(Blackhole bh) throws Exception {
+        scan(bbox, bh);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.benchmark;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.geotools.data.Transaction;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISDataStoreFactory;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISFeatureInserter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Batched inserts of generated points into an empty table, for the default
+ * and the bulk-load profiles, with and without the AUTO_SERVER mode.
+ *
+ * The bulk-load profile turns the transaction log off, the benchmark uses its
+ * own database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int featureCount;
+
+    @Param({"default", "bulk-load"})
+    public String profile;
+
+    @Param({"true", "false"})
+    public boolean autoServer;
+
+    private JDBCDataStore ds;
+    private ListFeatureCollection features;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Serializable> params = new HashMap<String, Serializable>();
+        params.put(H2GISDataStoreFactory.PROFILE.key, profile);
+        params.put(H2GISDataStoreFactory.AUTO_SERVER.key, autoServer);
+        ds = BenchmarkDataStores.create("load", params);
+        createTable();
+        SimpleFeatureType featureType = ds.getSchema("LOADED");
+        GeometryFactory factory = new GeometryFactory();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
+        features = new ListFeatureCollection(featureType);
+        for (int i = 1; i <= featureCount; i++) {
+            builder.set("NAME", "point " + i);
+            builder.set("THE_GEOM", factory.createPoint(new Coordinate((i * 7919L % 1000000) / 1000.0,
+                    (i * 104729L % 1000000) / 1000.0)));
+            features.add(builder.buildFeature(null));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createTable() throws Exception {
+        Connection cx = ds.getDataSource().getConnection();
+        try {
+            Statement st = cx.createStatement();
+            try {
+                st.execute("DROP TABLE IF EXISTS LOADED");
+                st.execute("CREATE TABLE LOADED (ID INT PRIMARY KEY, NAME VARCHAR,"
+                        + " THE_GEOM POINT CHECK ST_SRID(THE_GEOM) = 4326)");
+            } finally {
+                st.close();
+            }
+        } finally {
+            cx.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        ds.dispose();
+    }
+
+    @Benchmark
+    public int load() throws Exception {
+        return new H2GISFeatureInserter(ds, "LOADED").insert(features, Transaction.AUTO_COMMIT).size();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.benchmark;
+
+import com.vividsolutions.jts.io.WKBReader;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.geotools.jdbc.JDBCDataStore;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISDialect;
+import org.orbisgis.geoserver.h2gis.datastore.SimplificationMethod;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opengis.feature.type.GeometryDescriptor;
+
+/**
+ * Reads generated polygons of 1000 vertices with each simplification method,
+ * "none" being the unsimplified read. The secondary results give the WKB
+ * bytes transferred for each read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimplificationBenchmark {
+
+    private static final int ROW_COUNT = 2000;
+
+    @Param({"none", "simplify", "preserve-topology", "snap-to-grid", "vertex-cap"})
+    public String method;
+
+    @Param({"0.01", "1"})
+    public double distance;
+
+    private JDBCDataStore ds;
+    private String selectSQL;
+
+    /**
+     * Bytes and geometries read by an iteration
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Transfer {
+
+        public long bytes;
+        public long geometries;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            geometries = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        ds = BenchmarkDataStores.create("simplification", Collections.<String, Serializable>emptyMap());
+        H2GISDialect dialect = BenchmarkDataStores.getH2GISDialect(ds);
+        Connection cx = ds.getDataSource().getConnection();
+        try {
+            Statement st = cx.createStatement();
+            try {
+                st.execute("DROP TABLE IF EXISTS SHAPES");
+                st.execute("CREATE TABLE SHAPES (ID INT PRIMARY KEY, THE_GEOM POLYGON)");
+                // buffers of 1000 vertices with a jagged border
+                st.execute("INSERT INTO SHAPES SELECT X, ST_Buffer(ST_MakePoint(MOD(X, 50) * 10, X / 50 * 10),"
+                        + " 4, 250) FROM SYSTEM_RANGE(1, " + ROW_COUNT + ")");
+            } finally {
+                st.close();
+            }
+        } finally {
+            cx.close();
+        }
+        dialect.resetGeometryColumns(null);
+        GeometryDescriptor descriptor = ds.getSchema("SHAPES").getGeometryDescriptor();
+        StringBuffer sql = new StringBuffer("SELECT ");
+        if ("none".equals(method)) {
+            dialect.encodeGeometryColumn(descriptor, null, 0, null, sql);
+        } else {
+            dialect.setSimplificationMethod(SimplificationMethod.fromName(method));
+            dialect.setSimplificationVertexCap(256);
+            dialect.encodeGeometryColumnSimplified(descriptor, null, 0, sql, distance);
+        }
+        sql.append(" FROM SHAPES");
+        selectSQL = sql.toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ds.dispose();
+    }
+
+    @Benchmark
+    public void read(Transfer transfer, Blackhole bh) throws Exception {
+        WKBReader reader = new WKBReader(ds.getGeometryFactory());
+        Connection cx = ds.getDataSource().getConnection();
+        try {
+            Statement st = cx.createStatement();
+            try {
+                ResultSet rs = st.executeQuery(selectSQL);
+                while (rs.next()) {
+                    byte[] bytes = rs.getBytes(1);
+                    if (bytes != null) {
+                        transfer.bytes += bytes.length;
+                        transfer.geometries++;
+                        bh.consume(reader.read(bytes));
+                    }
+                }
+                rs.close();
+            } finally {
+                st.close();
+            }
+        } finally {
+            cx.close();
+        }
+    }
+}
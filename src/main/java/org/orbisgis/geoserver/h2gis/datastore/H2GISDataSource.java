@@ -0,0 +1,217 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+import javax.management.ObjectName;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.geotools.data.jdbc.datasource.DBCPDataSource;
+import org.orbisgis.geoserver.h2gis.datastore.jmx.ConnectionPoolMonitor;
+import org.orbisgis.geoserver.h2gis.datastore.jmx.MBeans;
+
+/**
+ * Connection pool of an H2GIS store. The time spent waiting for a
+ * connection and the pool exhaustions are recorded and published over JMX.
+ * The connections can be wrapped by a {@link H2GISResultCache},
+ * {@link H2GISEstimatedCounts}, {@link H2GISSlowQueryLog} and
+ * {@link H2GISQueryMetrics}.
+ */
+public class H2GISDataSource extends DBCPDataSource {
+
+    private final ConnectionPoolMonitor monitor;
+    private final String name;
+    private ObjectName monitorName;
+    private H2GISResultCache resultCache;
+    private boolean estimatedCounts = false;
+    private H2GISQueryMetrics queryMetrics;
+    private H2GISSlowQueryLog slowQueryLog;
+    private ObjectName resultCacheName;
+
+    /**
+     *
+     * @param wrapped the pool
+     * @param name the name used to publish the pool statistics, null to not
+     * publish them
+     */
+    public H2GISDataSource(BasicDataSource wrapped, String name) {
+        super(wrapped);
+        this.name = name;
+        monitor = new ConnectionPoolMonitor(wrapped);
+        if (name != null) {
+            monitorName = MBeans.register(monitor, "ConnectionPool", name);
+        }
+    }
+
+    /**
+     * @return the pool statistics
+     */
+    public ConnectionPoolMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * @return the query result cache or null if the results are not cached
+     */
+    public H2GISResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Cache the results of the feature queries, the cache statistics are
+     * published with the pool ones
+     *
+     * @param resultCache the cache or null to not cache the results
+     */
+    public void setResultCache(H2GISResultCache resultCache) {
+        MBeans.unregister(resultCacheName);
+        resultCacheName = null;
+        this.resultCache = resultCache;
+        if (resultCache != null && name != null) {
+            resultCacheName = MBeans.register(resultCache.getMonitor(), "ResultCache", name);
+        }
+    }
+
+    /**
+     * @return true if the unfiltered counts are estimated
+     */
+    public boolean isEstimatedCounts() {
+        return estimatedCounts;
+    }
+
+    /**
+     * Answer the unfiltered counts from the H2 table statistics, see
+     * {@link H2GISEstimatedCounts}
+     *
+     * @param estimatedCounts
+     */
+    public void setEstimatedCounts(boolean estimatedCounts) {
+        this.estimatedCounts = estimatedCounts;
+    }
+
+    /**
+     * @return the per layer query metrics or null if the queries are not
+     * measured
+     */
+    public H2GISQueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /**
+     * Measure the queries of each layer
+     *
+     * @param queryMetrics the metrics or null to not measure the queries
+     */
+    public void setQueryMetrics(H2GISQueryMetrics queryMetrics) {
+        if (this.queryMetrics != null) {
+            this.queryMetrics.close();
+        }
+        this.queryMetrics = queryMetrics;
+    }
+
+    /**
+     * @return the slow query log or null if the slow queries are not logged
+     */
+    public H2GISSlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Log the slow queries
+     *
+     * @param slowQueryLog the log or null to not log the slow queries
+     */
+    public void setSlowQueryLog(H2GISSlowQueryLog slowQueryLog) {
+        if (this.slowQueryLog != null) {
+            this.slowQueryLog.close();
+        }
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Wrap a connection of the pool, the counts are estimated before the
+     * results are cached, the slow query log only sees the queries sent to
+     * H2 and the queries are measured as seen by the store
+     */
+    private Connection wrap(Connection cx) {
+        if (estimatedCounts) {
+            cx = H2GISEstimatedCounts.wrap(cx);
+        }
+        if (slowQueryLog != null) {
+            cx = slowQueryLog.wrap(cx);
+        }
+        if (resultCache != null) {
+            cx = resultCache.wrap(cx);
+        }
+        return queryMetrics != null ? queryMetrics.wrap(cx) : cx;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection cx = super.getConnection();
+            monitor.borrowed(System.nanoTime() - start);
+            return wrap(cx);
+        } catch (SQLException e) {
+            if (e.getCause() instanceof NoSuchElementException) {
+                monitor.exhausted();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection cx = super.getConnection(username, password);
+            monitor.borrowed(System.nanoTime() - start);
+            return wrap(cx);
+        } catch (SQLException e) {
+            if (e.getCause() instanceof NoSuchElementException) {
+                monitor.exhausted();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        MBeans.unregister(monitorName);
+        monitorName = null;
+        MBeans.unregister(resultCacheName);
+        resultCacheName = null;
+        if (queryMetrics != null) {
+            queryMetrics.close();
+        }
+        if (slowQueryLog != null) {
+            slowQueryLog.close();
+        }
+        super.close();
+    }
+}
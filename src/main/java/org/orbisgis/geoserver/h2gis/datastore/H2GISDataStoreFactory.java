@@ -29,14 +29,19 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.sql.DataSource;
 import org.apache.commons.dbcp.BasicDataSource;
-import org.geotools.data.jdbc.datasource.DBCPDataSource;
 import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.JDBCDataStoreFactory;
 import org.geotools.jdbc.SQLDialect;
 import org.geotools.util.KVP;
+import org.geotools.util.logging.Logging;
 import org.h2gis.utilities.JDBCUtilities;
 import org.h2gis.h2spatialext.CreateSpatialExtension;
 
@@ -49,6 +54,9 @@ import org.h2gis.h2spatialext.CreateSpatialExtension;
  *
  */
 public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
+
+    private static final Logger LOGGER = Logging.getLogger(H2GISDataStoreFactory.class);
+
     /** parameter for database type */
     public static final Param DBTYPE = new Param("dbtype", String.class, "Type", true, "h2gis");
     
@@ -82,6 +90,60 @@ public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
     public static final Param MVSTORE = new Param("MVSTORE", Boolean.class, "MVSTORE", false, Boolean.TRUE);
 
     
+     /**
+     * optional parameter to let other processes open the embedded database
+     * through a server started by the first connection. Single process
+     * deployments should disable it to avoid the socket based lock check.
+     * @link http://www.h2database.com/html/features.html#auto_mixed_mode
+     */
+    public static final Param AUTO_SERVER = new Param("AUTO_SERVER", Boolean.class,
+            "Let other processes connect to the embedded database", false, Boolean.TRUE);
+
+    /**
+     * optional parameter to select a set of H2 settings tuned for a usage
+     * @see PerformanceProfile
+     */
+    public static final Param PROFILE = new Param("Performance profile", String.class,
+            "Set of H2 settings applied to an embedded database: default, read-mostly or bulk-load",
+            false, PerformanceProfile.DEFAULT.getName(),
+            new KVP(Param.OPTIONS, Arrays.asList(PerformanceProfile.DEFAULT.getName(),
+                    PerformanceProfile.READ_MOSTLY.getName(), PerformanceProfile.BULK_LOAD.getName())));
+
+    /**
+     * optional parameter to set the size of the page cache, in KB.
+     * @link http://www.h2database.com/html/grammar.html#set_cache_size
+     */
+    public static final Param CACHE_SIZE = new Param("CACHE_SIZE", Integer.class,
+            "Size of the H2 page cache in KB, overrides the one of the profile", false, null);
+
+    /**
+     * optional parameter to set the number of rows a result keeps in memory
+     * before H2 buffers it to disk.
+     * @link http://www.h2database.com/html/grammar.html#set_max_memory_rows
+     */
+    public static final Param MAX_MEMORY_ROWS = new Param("MAX_MEMORY_ROWS", Integer.class,
+            "Number of rows of a result kept in memory, the larger results are buffered to disk"
+            + " (embedded databases only, ignored with a warning for a remote host)",
+            false, null, new KVP(Param.LEVEL, "advanced"));
+
+    /**
+     * optional parameter to set the number of parsed statements H2 keeps for
+     * each session, a query sent again with the same SQL is not parsed again.
+     * @link http://www.h2database.com/html/performance.html#prepared_statements
+     */
+    public static final Param QUERY_CACHE_SIZE = new Param("QUERY_CACHE_SIZE", Integer.class,
+            "Number of parsed statements cached by each session, overrides the one of the profile"
+            + " (embedded databases only, ignored with a warning for a remote host)",
+            false, null, new KVP(Param.LEVEL, "advanced"));
+
+    /**
+     * optional parameter to set the file locking method.
+     * @link http://www.h2database.com/html/features.html#database_file_locking
+     */
+    public static final Param FILE_LOCK = new Param("FILE_LOCK", String.class,
+            "File locking method of an embedded database: FILE, SOCKET, FS or NO", false, null,
+            new KVP(Param.LEVEL, "advanced"));
+    
      /**
      * Enables ST_Simplify function when the queries contain geometry simplification hints
      */
@@ -89,6 +151,31 @@ public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
             "When enabled, operations such as map rendering will pass a hint that will enable the usage of ST_Simplify", false, Boolean.FALSE);
     
    
+    /**
+     * The simplification method applied with the geometry simplification hint
+     */
+    public static final Param SIMPLIFICATION_METHOD = new Param("Simplification method", String.class,
+            "Generalization of the geometries when simplification is enabled: simplify, preserve-topology,"
+            + " snap-to-grid or vertex-cap", false, SimplificationMethod.SIMPLIFY.getName(),
+            new KVP(Param.OPTIONS, Arrays.asList(SimplificationMethod.SIMPLIFY.getName(),
+                    SimplificationMethod.PRESERVE_TOPOLOGY.getName(), SimplificationMethod.SNAP_TO_GRID.getName(),
+                    SimplificationMethod.VERTEX_CAP.getName())));
+
+    /**
+     * The simplification methods of some layers
+     */
+    public static final Param LAYER_SIMPLIFICATION_METHODS = new Param("Layer simplification methods",
+            String.class, "Simplification methods overriding the one of the store for some tables,"
+            + " as TABLE=method separated by commas", false, null, new KVP(Param.LEVEL, "advanced"));
+
+    /**
+     * The number of vertices over which the vertex-cap method simplifies a
+     * geometry
+     */
+    public static final Param SIMPLIFICATION_VERTEX_CAP = new Param("Simplification vertex cap",
+            Integer.class, "Number of vertices over which the vertex-cap method simplifies a geometry",
+            false, 256, new KVP(Param.LEVEL, "advanced"));
+   
     /**
      * Enables direct encoding of selected filter functions in sql
      */
@@ -99,6 +186,85 @@ public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
             "However this allows to push more of the filter into the database, increasing performance." +
             "the postgis table.", false, false,
             new KVP( Param.LEVEL, "advanced"));
+
+    /**
+     * Reads the geometries stored by H2 without converting them with ST_AsBinary
+     */
+    public static final Param NATIVE_GEOMETRY = new Param("native geometry decoding", Boolean.class,
+            "When enabled, the geometry columns are read as stored by H2 instead of being converted by ST_AsBinary",
+            false, Boolean.FALSE, new KVP(Param.LEVEL, "advanced"));
+
+    /**
+     * Answers the unfiltered counts from the H2 table statistics
+     */
+    public static final Param ESTIMATED_COUNTS = new Param("Estimated counts", Boolean.class,
+            "Read the number of rows of a table from the H2 statistics instead of counting them when"
+            + " there is no filter, the rows of the transactions not committed yet are counted",
+            false, Boolean.FALSE);
+
+    /**
+     * Checks the geometry columns have a spatial index when the store opens
+     */
+    public static final Param SPATIAL_INDEX_AUDIT = new Param("Spatial index audit", String.class,
+            "When the store opens, log the geometry columns without spatial index (log), also create"
+            + " their indexes in the background (create) or do not check them (none)", false,
+            H2GISSpatialIndexAudit.Mode.LOG.getName(),
+            new KVP(Param.OPTIONS, Arrays.asList(H2GISSpatialIndexAudit.Mode.NONE.getName(),
+                    H2GISSpatialIndexAudit.Mode.LOG.getName(), H2GISSpatialIndexAudit.Mode.CREATE.getName())));
+
+    /**
+     * Enables the usage of prepared statements, geometries are then sent as WKB
+     * and H2 can reuse the query plans
+     */
+    public static final Param PREPARED_STATEMENTS = new Param("preparedStatements", Boolean.class,
+            "Use prepared statements", false, Boolean.FALSE);
+    
+    /**
+     * Number of values drawn at once from the sequences of the primary keys
+     */
+    public static final Param SEQUENCE_BLOCK_SIZE = new Param("Sequence block size", Integer.class,
+            "Number of primary key values drawn at once from a sequence, the values not used are lost"
+            + " when the store is disposed and a sequence restarted outside of the store is only seen"
+            + " once its block is used (1 draws one value for each insert)", false, 1,
+            new KVP(Param.LEVEL, "advanced"));
+
+    /**
+     * Number of feature query results kept in memory
+     */
+    public static final Param RESULT_CACHE_SIZE = new Param("Result cache size", Integer.class,
+            "Number of feature query results kept in memory, 0 disables the cache. The results are"
+            + " invalidated by the writes made through the store only", false, 0,
+            new KVP(Param.LEVEL, "advanced"));
+
+    /**
+     * Largest result kept by the result cache
+     */
+    public static final Param RESULT_CACHE_MAX_ROWS = new Param("Result cache max rows", Integer.class,
+            "Results having more rows are not kept by the result cache", false, 10000,
+            new KVP(Param.LEVEL, "advanced"));
+
+    /**
+     * Measures the queries of each layer
+     */
+    public static final Param QUERY_METRICS = new Param("Query metrics", Boolean.class,
+            "Measure the queries of each layer: latencies, rows, geometry bytes, time spent in H2 and"
+            + " decoding the geometries. The metrics are published through JMX", false, Boolean.FALSE,
+            new KVP(Param.LEVEL, "advanced"));
+
+    /**
+     * Logs the queries slower than a threshold
+     */
+    public static final Param SLOW_QUERY_THRESHOLD = new Param("Slow query threshold", Integer.class,
+            "The feature queries taking more milliseconds are logged with their filter, their SQL and"
+            + " their H2 plan, 0 disables the slow query log", false, 0,
+            new KVP(Param.LEVEL, "advanced"));
+
+    /**
+     * Publishes the connection pool statistics as an MBean
+     */
+    public static final Param JMX = new Param("JMX monitoring", Boolean.class,
+            "Publish the connection pool statistics through JMX", false, Boolean.TRUE,
+            new KVP(Param.LEVEL, "advanced"));
     
     /**
      * base location to store h2 database files
@@ -147,6 +313,27 @@ public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
         
         parameters.put(ENCODE_FUNCTIONS.key, ENCODE_FUNCTIONS);
         parameters.put(SIMPLIFY.key, SIMPLIFY);
+        parameters.put(SIMPLIFICATION_METHOD.key, SIMPLIFICATION_METHOD);
+        parameters.put(LAYER_SIMPLIFICATION_METHODS.key, LAYER_SIMPLIFICATION_METHODS);
+        parameters.put(SIMPLIFICATION_VERTEX_CAP.key, SIMPLIFICATION_VERTEX_CAP);
+        parameters.put(PREPARED_STATEMENTS.key, PREPARED_STATEMENTS);
+        parameters.put(NATIVE_GEOMETRY.key, NATIVE_GEOMETRY);
+        parameters.put(ESTIMATED_COUNTS.key, ESTIMATED_COUNTS);
+        parameters.put(SPATIAL_INDEX_AUDIT.key, SPATIAL_INDEX_AUDIT);
+        parameters.put(SEQUENCE_BLOCK_SIZE.key, SEQUENCE_BLOCK_SIZE);
+        parameters.put(RESULT_CACHE_SIZE.key, RESULT_CACHE_SIZE);
+        parameters.put(RESULT_CACHE_MAX_ROWS.key, RESULT_CACHE_MAX_ROWS);
+        parameters.put(JMX.key, JMX);
+        parameters.put(QUERY_METRICS.key, QUERY_METRICS);
+        parameters.put(SLOW_QUERY_THRESHOLD.key, SLOW_QUERY_THRESHOLD);
+        parameters.put(MVCC.key, MVCC);
+        parameters.put(MVSTORE.key, MVSTORE);
+        parameters.put(AUTO_SERVER.key, AUTO_SERVER);
+        parameters.put(PROFILE.key, PROFILE);
+        parameters.put(CACHE_SIZE.key, CACHE_SIZE);
+        parameters.put(FILE_LOCK.key, FILE_LOCK);
+        parameters.put(MAX_MEMORY_ROWS.key, MAX_MEMORY_ROWS);
+        parameters.put(QUERY_CACHE_SIZE.key, QUERY_CACHE_SIZE);
         
     }
 
@@ -179,11 +366,10 @@ public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
     protected DataSource createDataSource(Map params, SQLDialect dialect) throws IOException {
         String database = (String) DATABASE.lookUp(params);
         String host = (String) HOST.lookUp(params);
-        Boolean mvcc = (Boolean) MVCC.lookUp(params);
-        Boolean mvstore = (Boolean) MVSTORE.lookUp(params);
         BasicDataSource dataSource = new BasicDataSource();
         
         if (host != null && !host.equals("")) {
+            warnEmbeddedSettings(params, host);
             Integer port = (Integer) PORT.lookUp(params);
             if (port != null) {
                 dataSource.setUrl("jdbc:h2:tcp://" + host + ":" + port + "/" + database);
@@ -193,9 +379,7 @@ public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
             }
         } else if (baseDirectory == null) {
             //use current working directory
-            dataSource.setUrl("jdbc:h2:" + database + ";AUTO_SERVER=TRUE"
-                    + (mvcc != null ? (";MVCC=" + mvcc) : "")
-                    + (mvstore != null ? (";MVSTORE=" + mvstore) : ""));
+            dataSource.setUrl("jdbc:h2:" + database + getEmbeddedSettings(params));
         } else {
             //use directory specified if the patch is relative
             String location;
@@ -206,9 +390,7 @@ public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
                 location = database;
             }
 
-            dataSource.setUrl("jdbc:h2:file:" + location + ";AUTO_SERVER=TRUE"
-                    + (mvcc != null ? (";MVCC=" + mvcc) : "")
-                    + (mvstore != null ? (";MVSTORE=" + mvstore) : ""));
+            dataSource.setUrl("jdbc:h2:file:" + location + getEmbeddedSettings(params));
         }
         
         String username = (String) USER.lookUp(params);
@@ -221,7 +403,7 @@ public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
         }
         
         dataSource.setDriverClassName("org.h2.Driver");
-        dataSource.setPoolPreparedStatements(false);
+        setupPool(dataSource, params);
 
         // if we got here the database has been created, now verify it has the H2GIS extension
         // and eventually try to create them
@@ -239,7 +421,183 @@ public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
             closer.closeSafe(cx);
         }  
 
-        return new DBCPDataSource(dataSource);
+        Boolean jmx = (Boolean) JMX.lookUp(params);
+        H2GISDataSource h2gisDataSource = new H2GISDataSource(dataSource,
+                Boolean.FALSE.equals(jmx) ? null : dataSource.getUrl());
+        Boolean queryMetrics = (Boolean) QUERY_METRICS.lookUp(params);
+        if (Boolean.TRUE.equals(queryMetrics)) {
+            h2gisDataSource.setQueryMetrics(new H2GISQueryMetrics(
+                    Boolean.FALSE.equals(jmx) ? null : dataSource.getUrl()));
+        }
+        Integer slowQueryThreshold = (Integer) SLOW_QUERY_THRESHOLD.lookUp(params);
+        if (slowQueryThreshold != null && slowQueryThreshold > 0) {
+            h2gisDataSource.setSlowQueryLog(new H2GISSlowQueryLog(h2gisDataSource, slowQueryThreshold));
+        }
+        Boolean estimatedCounts = (Boolean) ESTIMATED_COUNTS.lookUp(params);
+        h2gisDataSource.setEstimatedCounts(Boolean.TRUE.equals(estimatedCounts));
+        Integer resultCacheSize = (Integer) RESULT_CACHE_SIZE.lookUp(params);
+        if (resultCacheSize != null && resultCacheSize > 0) {
+            Integer maxRows = (Integer) RESULT_CACHE_MAX_ROWS.lookUp(params);
+            h2gisDataSource.setResultCache(new H2GISResultCache(resultCacheSize,
+                    maxRows != null ? maxRows : (Integer) RESULT_CACHE_MAX_ROWS.sample));
+        }
+        return h2gisDataSource;
+    }
+
+    /**
+     * The engine settings are given in the URL that opens the database, the
+     * server of a remote database has opened it already
+     *
+     * @param params
+     * @param host
+     * @throws IOException
+     */
+    private void warnEmbeddedSettings(Map params, String host) throws IOException {
+        for (Param param : new Param[]{MAX_MEMORY_ROWS, QUERY_CACHE_SIZE}) {
+            if (param.lookUp(params) != null) {
+                LOGGER.log(Level.WARNING, "{0} is ignored for the database on {1}, it must be set by the server",
+                        new Object[]{param.key, host});
+            }
+        }
+    }
+
+    /**
+     * Build the settings of an embedded database URL from the profile and the
+     * engine parameters
+     *
+     * @param params
+     * @return the settings, each one prefixed by a semicolon
+     * @throws IOException
+     */
+    private String getEmbeddedSettings(Map params) throws IOException {
+        Boolean autoServer = (Boolean) AUTO_SERVER.lookUp(params);
+        Boolean mvcc = (Boolean) MVCC.lookUp(params);
+        Boolean mvstore = (Boolean) MVSTORE.lookUp(params);
+        String fileLock = (String) FILE_LOCK.lookUp(params);
+        Integer cacheSize = (Integer) CACHE_SIZE.lookUp(params);
+        Integer maxMemoryRows = (Integer) MAX_MEMORY_ROWS.lookUp(params);
+        Integer queryCacheSize = (Integer) QUERY_CACHE_SIZE.lookUp(params);
+        PerformanceProfile profile;
+        try {
+            profile = PerformanceProfile.fromName((String) PROFILE.lookUp(params));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        // H2 rejects the urls defining a setting twice
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        settings.put("AUTO_SERVER", String.valueOf(autoServer == null || autoServer).toUpperCase());
+        if (mvcc != null) {
+            settings.put("MVCC", String.valueOf(mvcc));
+        }
+        if (mvstore != null) {
+            settings.put("MVSTORE", String.valueOf(mvstore));
+        }
+        settings.putAll(profile.getSettings());
+        if (fileLock != null && !fileLock.isEmpty()) {
+            settings.put("FILE_LOCK", fileLock.toUpperCase());
+        }
+        if (cacheSize != null) {
+            settings.put("CACHE_SIZE", String.valueOf(cacheSize));
+        }
+        if (maxMemoryRows != null) {
+            settings.put("MAX_MEMORY_ROWS", String.valueOf(maxMemoryRows));
+        }
+        if (queryCacheSize != null) {
+            settings.put("QUERY_CACHE_SIZE", String.valueOf(queryCacheSize));
+        }
+
+        StringBuilder url = new StringBuilder();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            url.append(";").append(setting.getKey()).append("=").append(setting.getValue());
+        }
+        return url.toString();
+    }
+
+    /**
+     * Applies the pool sizing, validation, eviction and statement pool
+     * parameters
+     *
+     * @param dataSource
+     * @param params
+     * @throws IOException
+     */
+    private void setupPool(BasicDataSource dataSource, Map params) throws IOException {
+        Integer maxConn = (Integer) MAXCONN.lookUp(params);
+        if (maxConn != null) {
+            dataSource.setMaxActive(maxConn);
+        }
+        Integer minConn = (Integer) MINCONN.lookUp(params);
+        if (minConn != null) {
+            dataSource.setMinIdle(minConn);
+        }
+        Integer maxWait = (Integer) MAXWAIT.lookUp(params);
+        if (maxWait != null && maxWait != -1) {
+            dataSource.setMaxWait(maxWait * 1000);
+        }
+
+        // validation of the borrowed and idle connections
+        Boolean validate = (Boolean) VALIDATECONN.lookUp(params);
+        if (validate != null && validate) {
+            dataSource.setTestOnBorrow(true);
+            dataSource.setValidationQuery(getValidationQuery());
+        }
+        Boolean testWhileIdle = (Boolean) TEST_WHILE_IDLE.lookUp(params);
+        if (testWhileIdle != null && testWhileIdle) {
+            dataSource.setTestWhileIdle(true);
+            dataSource.setValidationQuery(getValidationQuery());
+        }
+
+        // eviction of the idle connections
+        Integer evictorRun = (Integer) TIME_BETWEEN_EVICTOR_RUNS.lookUp(params);
+        if (evictorRun != null && evictorRun > 0) {
+            dataSource.setTimeBetweenEvictionRunsMillis(evictorRun * 1000L);
+        }
+        Integer minEvictableTime = (Integer) MIN_EVICTABLE_TIME.lookUp(params);
+        if (minEvictableTime != null) {
+            dataSource.setMinEvictableIdleTimeMillis(minEvictableTime * 1000L);
+        }
+        Integer evictorTests = (Integer) EVICTOR_TESTS_PER_RUN.lookUp(params);
+        if (evictorTests != null) {
+            dataSource.setNumTestsPerEvictionRun(evictorTests);
+        }
+
+        // prepared statement pool
+        Integer maxStatements = (Integer) MAX_OPEN_PREPARED_STATEMENTS.lookUp(params);
+        if (maxStatements != null && maxStatements != 0) {
+            dataSource.setPoolPreparedStatements(true);
+            dataSource.setMaxOpenPreparedStatements(maxStatements);
+        } else {
+            dataSource.setPoolPreparedStatements(false);
+        }
+        dataSource.setAccessToUnderlyingConnectionAllowed(true);
+    }
+
+    /**
+     * Parse the TABLE=method list of the layer simplification methods
+     *
+     * @param value
+     * @return the methods indexed by table name
+     * @throws IllegalArgumentException if an entry or a method is not valid
+     */
+    static Map<String, SimplificationMethod> parseLayerSimplificationMethods(String value) {
+        Map<String, SimplificationMethod> methods = new HashMap<String, SimplificationMethod>();
+        if (value == null) {
+            return methods;
+        }
+        for (String entry : value.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int separator = entry.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid layer simplification method " + entry
+                        + ", expected TABLE=method");
+            }
+            methods.put(entry.substring(0, separator).trim(),
+                    SimplificationMethod.fromName(entry.substring(separator + 1).trim()));
+        }
+        return methods;
     }
 
     @Override
@@ -259,6 +617,47 @@ public class H2GISDataStoreFactory extends JDBCDataStoreFactory {
         //allow the simplify function
         Boolean simplify = (Boolean) SIMPLIFY.lookUp(params);
         h2GISDialect.setSimplifyEnabled(simplify == null || simplify);
+        try {
+            h2GISDialect.setSimplificationMethod(SimplificationMethod.fromName(
+                    (String) SIMPLIFICATION_METHOD.lookUp(params)));
+            h2GISDialect.setLayerSimplificationMethods(parseLayerSimplificationMethods(
+                    (String) LAYER_SIMPLIFICATION_METHODS.lookUp(params)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        Integer vertexCap = (Integer) SIMPLIFICATION_VERTEX_CAP.lookUp(params);
+        if (vertexCap != null) {
+            h2GISDialect.setSimplificationVertexCap(vertexCap);
+        }
+
+        //read the geometries as stored by H2
+        Boolean nativeGeometry = (Boolean) NATIVE_GEOMETRY.lookUp(params);
+        h2GISDialect.setNativeGeometryEnabled(Boolean.TRUE.equals(nativeGeometry));
+
+        //draw the primary keys by blocks
+        Integer sequenceBlockSize = (Integer) SEQUENCE_BLOCK_SIZE.lookUp(params);
+        if (sequenceBlockSize != null) {
+            h2GISDialect.setSequenceBlockSize(sequenceBlockSize);
+        }
+
+        // setup the ps dialect if need be
+        Boolean usePs = (Boolean) PREPARED_STATEMENTS.lookUp(params);
+        if (Boolean.TRUE.equals(usePs)) {
+            dataStore.setSQLDialect(new H2GISPSDialect(dataStore, h2GISDialect));
+        }
+
+        //look for the geometry columns without spatial index
+        H2GISSpatialIndexAudit.Mode auditMode;
+        try {
+            auditMode = H2GISSpatialIndexAudit.Mode.fromName((String) SPATIAL_INDEX_AUDIT.lookUp(params));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        try {
+            new H2GISSpatialIndexAudit(dataStore).audit(auditMode);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot audit the spatial indexes", e);
+        }
 
         return dataStore;
     }
@@ -37,10 +37,11 @@ import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.io.WKBReader;
 import com.vividsolutions.jts.io.WKTWriter;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -48,22 +49,27 @@ import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import org.geotools.data.jdbc.FilterToSQL;
 import org.geotools.factory.Hints;
 import org.geotools.jdbc.BasicSQLDialect;
 import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.referencing.CRS;
-import org.h2.value.ValueGeometry;
-import org.h2gis.utilities.SFSUtilities;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISPyramids.PyramidLevel;
+import org.orbisgis.geoserver.h2gis.datastore.jmx.LayerMetrics;
 
 /**
  * Dialect to transform from to geotools feature model 
@@ -74,7 +80,20 @@ import org.opengis.feature.type.GeometryDescriptor;
  */
 public class H2GISDialect extends BasicSQLDialect {
 
-    final static WKTReader wKTReader = new WKTReader();
+    /**
+     * Key of the {@link SimplificationMethod} of a layer in the user data of
+     * its geometry descriptors
+     */
+    public static final String SIMPLIFICATION_METHOD = "h2gis.simplificationMethod";
+
+    /**
+     * Key of the pyramid levels of a geometry column in the user data of its
+     * descriptor, sorted by increasing tolerance
+     *
+     * @see H2GISPyramids
+     */
+    public static final String PYRAMID_LEVELS = "h2gis.pyramidLevels";
+
     private static final Map<String,Class> TYPE_TO_CLASS = new HashMap<String,Class>();
     private static final Map<Class, String> CLASS_TO_TYPE = new HashMap<Class, String>();
     
@@ -111,6 +130,35 @@ public class H2GISDialect extends BasicSQLDialect {
     
     boolean simplifyEnabled = true;
     
+    boolean nativeGeometryEnabled = false;
+    
+    int sequenceBlockSize = 1;
+    
+    SimplificationMethod simplificationMethod = SimplificationMethod.SIMPLIFY;
+    
+    int simplificationVertexCap = 256;
+    
+    /**
+     * Simplification methods overriding the default one, indexed by table name
+     */
+    Map<String, SimplificationMethod> layerSimplificationMethods = new HashMap<String, SimplificationMethod>();
+    
+    /**
+     * GEOMETRY_COLUMNS entries per schema, indexed by table and column names
+     */
+    private final Map<String, Map<String, GeometryColumn>> geometryColumns = new ConcurrentHashMap<String, Map<String, GeometryColumn>>();
+    
+    /**
+     * Sequence values already allocated and not used yet, indexed by schema
+     * and sequence names
+     */
+    private final ConcurrentMap<String, LinkedList<Long>> sequenceValues = new ConcurrentHashMap<String, LinkedList<Long>>();
+    
+    /**
+     * WKB readers are not thread safe, keep one per thread
+     */
+    private final ThreadLocal<FactoryWKBReader> wkbReaders = new ThreadLocal<FactoryWKBReader>();
+    
     @Override
     public boolean isAggregatedSortSupported(String function) {
        return "distinct".equalsIgnoreCase(function);
@@ -144,7 +192,9 @@ public class H2GISDialect extends BasicSQLDialect {
             return false;
         } else if (tableName.toLowerCase().startsWith("spatial_ref_sys")) {
             return false;
-        } 
+        } else if (H2GISPyramids.isPyramidTable(cx, getSchemaName(schemaName), tableName)) {
+            return false;
+        }
         return true;
     }
     
@@ -153,13 +203,41 @@ public class H2GISDialect extends BasicSQLDialect {
     public Geometry decodeGeometryValue(GeometryDescriptor descriptor,
             ResultSet rs, String column, GeometryFactory factory, Connection cx)
             throws IOException, SQLException {
-        Geometry geom = ValueGeometry.get(rs.getBytes(column)).getGeometry();
-        if (geom == null) {
+        LayerMetrics metrics = H2GISQueryMetrics.getLayerMetrics(rs);
+        long start = metrics != null ? System.nanoTime() : 0;
+        byte[] bytes = rs.getBytes(column);
+        if (bytes == null) {
             return null;
         }
-        return geom;
+        try {
+            Geometry geometry = getWKBReader(factory).read(bytes);
+            if (metrics != null) {
+                metrics.decoded(bytes.length, System.nanoTime() - start);
+            }
+            return geometry;
+        } catch (ParseException e) {
+            throw new IOException("Cannot decode the geometry", e);
+        }
     }    
     
+    /**
+     * Return the WKB reader of the current thread, bound to the given factory
+     *
+     * @param factory
+     * @return
+     */
+    private WKBReader getWKBReader(GeometryFactory factory) {
+        if (factory == null) {
+            factory = dataStore.getGeometryFactory();
+        }
+        FactoryWKBReader wkbReader = wkbReaders.get();
+        if (wkbReader == null || wkbReader.factory != factory) {
+            wkbReader = new FactoryWKBReader(factory);
+            wkbReaders.set(wkbReader);
+        }
+        return wkbReader.reader;
+    }
+    
 
     @Override
     public void encodeGeometryColumn(GeometryDescriptor gatt, String prefix, int srid,
@@ -174,23 +252,27 @@ public class H2GISDialect extends BasicSQLDialect {
         boolean force2D = hints != null && hints.containsKey(Hints.FEATURE_2D)
                 && Boolean.TRUE.equals(hints.get(Hints.FEATURE_2D));
 
+        if (!nativeGeometryEnabled) {
+            sql.append("ST_AsBinary(");
+        }
         if (force2D) {
-            sql.append("ST_AsBinary(ST_Force2D(");
+            sql.append("ST_Force2D(");
             encodeColumnName(prefix, gatt.getLocalName(), sql);
-            sql.append("))");
+            sql.append(")");
         } else {
-            sql.append("ST_AsBinary(");
             encodeColumnName(prefix, gatt.getLocalName(), sql);
+        }
+        if (!nativeGeometryEnabled) {
             sql.append(")");
-        }        
+        }
     }    
     
 
     @Override
     public void encodeGeometryEnvelope(String tableName, String geometryColumn,
             StringBuffer sql) {
-        sql.append("ST_AsText(");
-        sql.append("ST_Extent(\"").append(geometryColumn).append("\"::geometry))");
+        sql.append("ST_AsBinary(");
+        sql.append("ST_Extent(\"").append(geometryColumn).append("\"))");
     }    
    
 
@@ -198,9 +280,9 @@ public class H2GISDialect extends BasicSQLDialect {
     public Envelope decodeGeometryEnvelope(ResultSet rs, int column,
             Connection cx) throws SQLException, IOException {
         try {
-            String envelope = rs.getString(column);
+            byte[] envelope = rs.getBytes(column);
             if (envelope != null){
-                return wKTReader.read(envelope).getEnvelopeInternal();
+                return getWKBReader(null).read(envelope).getEnvelopeInternal();
             }
             else{
                 // empty one
@@ -211,7 +293,7 @@ public class H2GISDialect extends BasicSQLDialect {
                     "Cannot create the bounding box", e);
         }
     }
-
+    
     @Override
     public Class<?> getMapping(ResultSet columnMetaData, Connection cx)
             throws SQLException {
@@ -231,110 +313,248 @@ public class H2GISDialect extends BasicSQLDialect {
     @Override
     public Integer getGeometrySRID(String schemaName, String tableName,
             String columnName, Connection cx) throws SQLException {
+        // first attempt, try with the cached geometry metadata
+        GeometryColumn geometryColumn = getGeometryColumn(schemaName, tableName, columnName, cx);
+        if (geometryColumn != null && geometryColumn.srid != null) {
+            return geometryColumn.srid;
+        }
 
-        // first attempt, try with the geometry metadata
+        // fall back on inspection of the first geometry, assuming uniform srid (fair assumption
+        // an unpredictable srid makes the table un-queriable)
+        int srid = 0;
+        String sqlStatement = "SELECT ST_SRID(\"" + columnName + "\") " +
+                "FROM \"" + getSchemaName(schemaName) + "\".\"" + tableName + "\" " +
+                "WHERE \"" + columnName + "\" IS NOT NULL " +
+                "LIMIT 1";
         Statement statement = null;
         ResultSet result = null;
-        int srid = 0;
         try {
-            if (schemaName == null)
-                schemaName = "PUBLIC";
-                        
-            
-            // try geometry_columns
-            try {
-                String sqlStatement = "SELECT SRID FROM GEOMETRY_COLUMNS WHERE " //
-                        + "F_TABLE_SCHEMA = '" + schemaName + "' " //
-                        + "AND F_TABLE_NAME = '" + tableName + "' " //
-                        + "AND F_GEOMETRY_COLUMN = '" + columnName + "'";
-    
-                LOGGER.log(Level.FINE, "Geometry srid check; {0} ", sqlStatement);
-                statement = cx.createStatement();
-                result = statement.executeQuery(sqlStatement);
-    
-                if (result.next()) {
-                    srid = result.getInt(1);
-                }
-            } catch(SQLException e) {
-                LOGGER.log(Level.WARNING, "Failed to retrieve information about " 
-                        + schemaName + "." + tableName + "."  + columnName 
-                        + " from the geometry_columns table, checking the first geometry instead", e);
-            } finally {
-                dataStore.closeSafe(result);
-            }
-            
-            // fall back on inspection of the first geometry, assuming uniform srid (fair assumption
-            // an unpredictable srid makes the table un-queriable)
-            if(srid == 0) {
-                String sqlStatement = "SELECT ST_SRID(\"" + columnName + "\") " +
-                               "FROM \"" + schemaName + "\".\"" + tableName + "\" " +
-                               "WHERE \"" + columnName + "\" IS NOT NULL " +
-                               "LIMIT 1";
-                result = statement.executeQuery(sqlStatement);
-                if (result.next()) {
-                    srid = result.getInt(1);
-                }
+            LOGGER.log(Level.FINE, "Geometry srid check; {0} ", sqlStatement);
+            statement = cx.createStatement();
+            result = statement.executeQuery(sqlStatement);
+            if (result.next()) {
+                srid = result.getInt(1);
             }
         } finally {
             dataStore.closeSafe(result);
             dataStore.closeSafe(statement);
         }
-
+        getOrCreateGeometryColumn(schemaName, tableName, columnName, cx).srid = srid;
         return srid;
     }
     
     @Override
     public int getGeometryDimension(String schemaName, String tableName, String columnName,
             Connection cx) throws SQLException {
-        //first attempt, try with the geometry metadata
+        // first attempt, try with the cached geometry metadata
+        GeometryColumn geometryColumn = getGeometryColumn(schemaName, tableName, columnName, cx);
+        if (geometryColumn != null && geometryColumn.dimension != null) {
+            return geometryColumn.dimension;
+        }
+
+        // fall back on inspection of the first geometry, assuming uniform dimension
+        int dimension = 0;
+        String sqlStatement = "SELECT ST_DIMENSION(\"" + columnName + "\") " +
+                "FROM \"" + getSchemaName(schemaName) + "\".\"" + tableName + "\" " +
+                "WHERE \"" + columnName + "\" IS NOT NULL " +
+                "LIMIT 1";
         Statement statement = null;
         ResultSet result = null;
-        int dimension = 0;
         try {
-            if (schemaName == null){
-                schemaName = "PUBLIC";
+            LOGGER.log(Level.FINE, "Geometry dimension check; {0} ", sqlStatement);
+            statement = cx.createStatement();
+            result = statement.executeQuery(sqlStatement);
+            if (result.next()) {
+                dimension = result.getInt(1);
             }
-            
-            // try geometry_columns
-            try {
-                String sqlStatement = "SELECT COORD_DIMENSION FROM GEOMETRY_COLUMNS WHERE " //
-                        + "F_TABLE_SCHEMA = '" + schemaName + "' " //
-                        + "AND F_TABLE_NAME = '" + tableName + "' " //
-                        + "AND F_GEOMETRY_COLUMN = '" + columnName + "'";
+        } finally {
+            dataStore.closeSafe(result);
+            dataStore.closeSafe(statement);
+        }
+        getOrCreateGeometryColumn(schemaName, tableName, columnName, cx).dimension = dimension;
+        return dimension;
+    }
+    
+    /**
+     * The SRID of a geometry attribute, from the feature type or else from the
+     * cached geometry metadata, so that the filters can use a constant SRID
+     * instead of reading the one of each row. No connection is borrowed, so
+     * the metadata is only known once the store has read the layer, as
+     * getSchema does before any feature source encodes its filters. Use the
+     * overload taking a connection when the layer may not have been read.
+     *
+     * @param featureType
+     * @param descriptor
+     * @return the srid or null for the virtual tables or if it is not known
+     */
+    public Integer getNativeSRID(SimpleFeatureType featureType, GeometryDescriptor descriptor) {
+        Object nativeSRID = descriptor.getUserData().get(JDBCDataStore.JDBC_NATIVE_SRID);
+        if (nativeSRID instanceof Integer) {
+            return (Integer) nativeSRID;
+        }
+        if (featureType == null || dataStore.getVirtualTables().get(featureType.getTypeName()) != null) {
+            return null;
+        }
+        Map<String, GeometryColumn> schemaColumns = geometryColumns.get(getSchemaName(dataStore.getDatabaseSchema()));
+        if (schemaColumns != null) {
+            GeometryColumn geometryColumn = schemaColumns.get(getGeometryColumnKey(featureType.getTypeName(),
+                    descriptor.getLocalName()));
+            if (geometryColumn != null && geometryColumn.srid != null) {
+                return geometryColumn.srid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The SRID of a geometry attribute, read with the given connection when
+     * it is not known yet
+     *
+     * @param featureType
+     * @param descriptor
+     * @param cx
+     * @return the srid or null for the virtual tables or if it can not be read
+     */
+    public Integer getNativeSRID(SimpleFeatureType featureType, GeometryDescriptor descriptor,
+            Connection cx) {
+        Integer srid = getNativeSRID(featureType, descriptor);
+        if (srid != null || featureType == null
+                || dataStore.getVirtualTables().get(featureType.getTypeName()) != null) {
+            return srid;
+        }
+        String tableName = featureType.getTypeName();
+        String columnName = descriptor.getLocalName();
+        try {
+            return getGeometrySRID(dataStore.getDatabaseSchema(), tableName, columnName, cx);
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the srid of " + tableName + "." + columnName, e);
+            return null;
+        }
+    }
     
-                LOGGER.log(Level.FINE, "Geometry srid check; {0} ", sqlStatement);
-                statement = cx.createStatement();
-                result = statement.executeQuery(sqlStatement);
+    /**
+     * Return the cached GEOMETRY_COLUMNS entry of a column, the whole schema
+     * is read at once the first time one of its columns is requested.
+     *
+     * @param schemaName
+     * @param tableName
+     * @param columnName
+     * @param cx
+     * @return the column metadata or null if the column is not registered
+     * @throws SQLException 
+     */
+    GeometryColumn getGeometryColumn(String schemaName, String tableName,
+            String columnName, Connection cx) throws SQLException {
+        return getGeometryColumns(schemaName, cx).get(getGeometryColumnKey(tableName, columnName));
+    }
     
-                if (result.next()) {
-                    dimension = result.getInt(1);
-                }
-            } catch(SQLException e) {
-                LOGGER.log(Level.WARNING, "Failed to retrieve information about " 
-                        + schemaName + "." + tableName + "."  + columnName 
-                        + " from the geometry_columns table, checking the first geometry instead", e);
-            } finally {
-                dataStore.closeSafe(result);
+    /**
+     * Return the cached GEOMETRY_COLUMNS entries of a schema
+     */
+    private Map<String, GeometryColumn> getGeometryColumns(String schemaName, Connection cx) {
+        schemaName = getSchemaName(schemaName);
+        Map<String, GeometryColumn> schemaColumns = geometryColumns.get(schemaName);
+        if (schemaColumns == null) {
+            schemaColumns = loadGeometryColumns(schemaName, cx);
+            if (schemaColumns == null) {
+                // not cached, the schema is read again on the next lookup
+                return new ConcurrentHashMap<String, GeometryColumn>();
             }
-            
-            // fall back on inspection of the first geometry, assuming uniform srid (fair assumption
-            // an unpredictable srid makes the table un-queriable)
-            if(dimension == 0) {
-                String sqlStatement = "SELECT ST_DIMENSION(\"" + columnName + "\") " +
-                               "FROM \"" + schemaName + "\".\"" + tableName + "\" " +
-                               "WHERE " + columnName + " IS NOT NULL " +
-                               "LIMIT 1";
-                result = statement.executeQuery(sqlStatement);
-                if (result.next()) {
-                    dimension = result.getInt(1);
-                }
+            geometryColumns.put(schemaName, schemaColumns);
+        }
+        return schemaColumns;
+    }
+    
+    /**
+     * Return the cached metadata of a column, creating an empty entry for
+     * the columns which are not registered in GEOMETRY_COLUMNS
+     */
+    private GeometryColumn getOrCreateGeometryColumn(String schemaName, String tableName,
+            String columnName, Connection cx) throws SQLException {
+        Map<String, GeometryColumn> schemaColumns = getGeometryColumns(schemaName, cx);
+        String key = getGeometryColumnKey(tableName, columnName);
+        GeometryColumn geometryColumn = schemaColumns.get(key);
+        if (geometryColumn == null) {
+            geometryColumn = new GeometryColumn();
+            schemaColumns.put(key, geometryColumn);
+        }
+        return geometryColumn;
+    }
+    
+    /**
+     * Read all the GEOMETRY_COLUMNS entries of a schema
+     *
+     * @param schemaName
+     * @param cx
+     * @return the entries or null if they could not be read
+     */
+    private Map<String, GeometryColumn> loadGeometryColumns(String schemaName, Connection cx) {
+        Map<String, GeometryColumn> schemaColumns = new ConcurrentHashMap<String, GeometryColumn>();
+        String sqlStatement = "SELECT F_TABLE_NAME, F_GEOMETRY_COLUMN, SRID, COORD_DIMENSION, TYPE "
+                + "FROM GEOMETRY_COLUMNS WHERE F_TABLE_SCHEMA = ?";
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            LOGGER.log(Level.FINE, "Geometry columns of {0}; {1} ", new Object[]{schemaName, sqlStatement});
+            ps = cx.prepareStatement(sqlStatement);
+            ps.setString(1, schemaName);
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                GeometryColumn geometryColumn = new GeometryColumn();
+                // 0 means unknown, the first geometry will be checked
+                int srid = rs.getInt(3);
+                geometryColumn.srid = srid != 0 ? srid : null;
+                int dimension = rs.getInt(4);
+                geometryColumn.dimension = dimension != 0 ? dimension : null;
+                geometryColumn.type = rs.getString(5);
+                schemaColumns.put(getGeometryColumnKey(rs.getString(1), rs.getString(2)), geometryColumn);
             }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to retrieve information about the schema "
+                    + schemaName + " from the geometry_columns table, checking the first geometries instead", e);
+            return null;
         } finally {
-            dataStore.closeSafe(result);
-            dataStore.closeSafe(statement);
+            dataStore.closeSafe(rs);
+            dataStore.closeSafe(ps);
         }
+        return schemaColumns;
+    }
+    
+    /**
+     * Forget the geometry metadata of a schema, it will be read again on the
+     * next lookup
+     *
+     * @param schemaName
+     */
+    public void resetGeometryColumns(String schemaName) {
+        geometryColumns.remove(getSchemaName(schemaName));
+    }
+    
+    /**
+     * Quote an identifier for the queries written outside of the dialect
+     *
+     * @param identifier
+     * @return
+     */
+    public static String quote(String identifier) {
+        return "\"" + identifier + "\"";
+    }
 
-        return dimension;
+    /**
+     * @param schema
+     * @param table
+     * @return the quoted qualified name of a table
+     */
+    public static String quote(String schema, String table) {
+        return quote(schema) + "." + quote(table);
+    }
+
+    private static String getSchemaName(String schemaName) {
+        return schemaName != null ? schemaName : "PUBLIC";
+    }
+    
+    private static String getGeometryColumnKey(String tableName, String columnName) {
+        return "\"" + tableName + "\".\"" + columnName + "\"";
     }
 
     @Override
@@ -370,15 +590,64 @@ public class H2GISDialect extends BasicSQLDialect {
     @Override
     public Object getNextSequenceValue(String schemaName, String sequenceName,
             Connection cx) throws SQLException {
+        if (sequenceBlockSize <= 1) {
+            List<Long> values = allocateSequenceValues(schemaName, sequenceName, 1, cx);
+            return values.isEmpty() ? null : values.get(0);
+        }
+        String key = getSchemaName(schemaName) + "." + sequenceName;
+        LinkedList<Long> values = sequenceValues.get(key);
+        if (values == null) {
+            values = new LinkedList<Long>();
+            LinkedList<Long> previous = sequenceValues.putIfAbsent(key, values);
+            if (previous != null) {
+                values = previous;
+            }
+        }
+        synchronized (values) {
+            if (values.isEmpty()) {
+                values.addAll(allocateSequenceValues(schemaName, sequenceName, sequenceBlockSize, cx));
+            }
+            return values.poll();
+        }
+    }
+
+    /**
+     * Forget the sequence values drawn in advance, the next keys are drawn
+     * from the sequences again
+     */
+    public void resetSequenceValues() {
+        sequenceValues.clear();
+    }
+
+    /**
+     * Draw several values from a sequence with a single query
+     *
+     * @param schemaName
+     * @param sequenceName
+     * @param count number of values
+     * @param cx
+     * @return the values, in the order they were drawn
+     * @throws SQLException
+     */
+    public List<Long> allocateSequenceValues(String schemaName, String sequenceName, int count,
+            Connection cx) throws SQLException {
+        List<Long> values = new ArrayList<Long>(count);
         Statement st = cx.createStatement();
         try {
-            String sql = "SELECT nextval('" + sequenceName + "')";
+            StringBuilder sql = new StringBuilder("SELECT nextval(");
+            if (schemaName != null) {
+                sql.append("'").append(schemaName).append("', ");
+            }
+            sql.append("'").append(sequenceName).append("')");
+            if (count > 1) {
+                sql.append(" FROM SYSTEM_RANGE(1, ").append(count).append(")");
+            }
 
-            dataStore.getLogger().fine(sql);
-            ResultSet rs = st.executeQuery(sql);
+            dataStore.getLogger().fine(sql.toString());
+            ResultSet rs = st.executeQuery(sql.toString());
             try {
-                if (rs.next()) {
-                    return rs.getLong(1);
+                while (rs.next()) {
+                    values.add(rs.getLong(1));
                 }
             } finally {
                 dataStore.closeSafe(rs);
@@ -386,9 +655,8 @@ public class H2GISDialect extends BasicSQLDialect {
         } finally {
             dataStore.closeSafe(st);
         }
-
-        return null;
-    }    
+        return values;
+    }
     
     @Override
     public Object getLastAutoGeneratedValue(String schemaName, String tableName, String columnName,
@@ -532,16 +800,7 @@ public class H2GISDialect extends BasicSQLDialect {
                     
                     
                     // add a spatial index to the table
-                    sql = 
-                    "CREATE SPATIAL INDEX \"spatial_" + tableName // 
-                            + "_" + gd.getLocalName().toLowerCase() + "\""// 
-                            + " ON " //
-                            + "\"" + schemaName + "\"" // 
-                            + "." //
-                            + "\"" + tableName + "\"" //
-                            + " (" //
-                            + "\"" + gd.getLocalName() + "\"" //
-                            + ")";
+                    sql = getSpatialIndexSQL(schemaName, tableName, gd.getLocalName());
                     LOGGER.fine(sql);
                     st.execute(sql);
                 }
@@ -551,13 +810,119 @@ public class H2GISDialect extends BasicSQLDialect {
             }
          } finally {
             dataStore.closeSafe(st);
+            resetGeometryColumns(schemaName);
         }
     }
     
+    /**
+     * Create the spatial index of a geometry column, unless the column is
+     * already indexed
+     *
+     * @param schemaName
+     * @param tableName
+     * @param columnName
+     * @param cx
+     * @return true if the index has been created
+     * @throws SQLException
+     */
+    public boolean createSpatialIndex(String schemaName, String tableName, String columnName,
+            Connection cx) throws SQLException {
+        if (hasSpatialIndex(schemaName, tableName, columnName, cx)) {
+            return false;
+        }
+        String sql = getSpatialIndexSQL(getSchemaName(schemaName), tableName, columnName);
+        LOGGER.fine(sql);
+        Statement st = cx.createStatement();
+        try {
+            st.execute(sql);
+        } finally {
+            dataStore.closeSafe(st);
+        }
+        return true;
+    }
+
+    /**
+     * Check if a geometry column has a spatial index
+     *
+     * @param schemaName
+     * @param tableName
+     * @param columnName
+     * @param cx
+     * @return
+     * @throws SQLException
+     */
+    public boolean hasSpatialIndex(String schemaName, String tableName, String columnName,
+            Connection cx) throws SQLException {
+        PreparedStatement ps = cx.prepareStatement("SELECT 1 FROM INFORMATION_SCHEMA.INDEXES"
+                + " WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? AND COLUMN_NAME = ?"
+                + " AND INDEX_TYPE_NAME = 'SPATIAL INDEX'");
+        try {
+            ps.setString(1, getSchemaName(schemaName));
+            ps.setString(2, tableName);
+            ps.setString(3, columnName);
+            ResultSet rs = ps.executeQuery();
+            try {
+                return rs.next();
+            } finally {
+                dataStore.closeSafe(rs);
+            }
+        } finally {
+            dataStore.closeSafe(ps);
+        }
+    }
+
+    private static String getSpatialIndexSQL(String schemaName, String tableName, String columnName) {
+        return "CREATE SPATIAL INDEX \"spatial_" + tableName // 
+                + "_" + columnName.toLowerCase() + "\""// 
+                + " ON " //
+                + "\"" + schemaName + "\"" // 
+                + "." //
+                + "\"" + tableName + "\"" //
+                + " (" //
+                + "\"" + columnName + "\"" //
+                + ")";
+    }
+
     @Override
     public void postDropTable(String schemaName, SimpleFeatureType featureType, Connection cx)
             throws SQLException {
-        //Nothing todo it's a view and a view is not editable.
+        // the geometry metadata of the dropped table are read again
+        resetGeometryColumns(schemaName);
+        // the sequence of the table is dropped too
+        resetSequenceValues();
+        // but not the levels of its pyramid
+        H2GISPyramids.dropLevels(cx, getSchemaName(schemaName), featureType.getTypeName());
+        H2GISResultCache.modifying(cx, featureType.getTypeName());
+    }
+
+    @Override
+    public void onSelect(Statement select, Connection cx, SimpleFeatureType featureType)
+            throws SQLException {
+        // only the feature queries use the result cache and are measured
+        H2GISResultCache.selecting(select, featureType.getTypeName());
+        H2GISQueryMetrics.selecting(select, featureType.getTypeName());
+        H2GISSlowQueryLog.selecting(select, featureType.getTypeName());
+    }
+
+    @Override
+    public void onInsert(Statement insert, Connection cx, SimpleFeatureType featureType)
+            throws SQLException {
+        H2GISResultCache.modifying(cx, featureType.getTypeName());
+        H2GISQueryMetrics.modifying(insert, featureType.getTypeName());
+    }
+
+    @Override
+    public void onUpdate(Statement update, Connection cx, SimpleFeatureType featureType)
+            throws SQLException {
+        H2GISResultCache.modifying(cx, featureType.getTypeName());
+        H2GISQueryMetrics.modifying(update, featureType.getTypeName());
+    }
+
+    @Override
+    public void onDelete(Statement delete, Connection cx, SimpleFeatureType featureType)
+            throws SQLException {
+        H2GISResultCache.modifying(cx, featureType.getTypeName());
+        H2GISQueryMetrics.modifying(delete, featureType.getTypeName());
     }
 
     @Override
@@ -639,31 +1004,17 @@ public class H2GISDialect extends BasicSQLDialect {
      * @return
      */
     private Class<?> getGeometryClass(ResultSet columnMetaData, Connection cx) throws SQLException {
-        StringBuilder sb = new StringBuilder("AND f_geometry_column  = '");
-        sb.append(columnMetaData.getString("COLUMN_NAME"));
-        sb.append("'");
-
-        PreparedStatement ps = SFSUtilities.prepareInformationSchemaStatement(cx, columnMetaData.getString("TABLE_CAT"), columnMetaData.getString("TABLE_SCHEM"), columnMetaData.getString("TABLE_NAME"), "geometry_columns", sb.toString());
-        ResultSet rs = null;
-        try {
-            rs = ps.executeQuery();
-            String gType = null;
-            if (rs.next()) {
-                gType = rs.getString("TYPE");
-            }
-            if (gType == null) {
-                return Geometry.class;
-            } else {
-                Class geometryClass = TYPE_TO_CLASS.get(gType);
-                if (geometryClass == null) {
-                    geometryClass = Geometry.class;
-                }
-                return geometryClass;
+        GeometryColumn geometryColumn = getGeometryColumn(columnMetaData.getString("TABLE_SCHEM"),
+                columnMetaData.getString("TABLE_NAME"), columnMetaData.getString("COLUMN_NAME"), cx);
+        String gType = geometryColumn != null ? geometryColumn.type : null;
+        if (gType == null) {
+            return Geometry.class;
+        } else {
+            Class geometryClass = TYPE_TO_CLASS.get(gType);
+            if (geometryClass == null) {
+                geometryClass = Geometry.class;
             }
-
-        } finally {
-            dataStore.closeSafe(rs);
-            dataStore.closeSafe(ps);
+            return geometryClass;
         }
     }
     
@@ -688,6 +1039,81 @@ public class H2GISDialect extends BasicSQLDialect {
         }
     }    
     
+    public boolean isNativeGeometryEnabled() {
+        return nativeGeometryEnabled;
+    }
+
+    /**
+     * Enables/disables the decoding of the geometry bytes stored by H2 without
+     * the ST_AsBinary conversion
+     *
+     * @param nativeGeometryEnabled
+     * @see H2GISDataStoreFactory#NATIVE_GEOMETRY
+     */
+    public void setNativeGeometryEnabled(boolean nativeGeometryEnabled) {
+        this.nativeGeometryEnabled = nativeGeometryEnabled;
+    }
+    
+    public SimplificationMethod getSimplificationMethod() {
+        return simplificationMethod;
+    }
+
+    /**
+     * The simplification method of the layers without a method of their own
+     *
+     * @param simplificationMethod
+     * @see H2GISDataStoreFactory#SIMPLIFICATION_METHOD
+     */
+    public void setSimplificationMethod(SimplificationMethod simplificationMethod) {
+        this.simplificationMethod = simplificationMethod;
+    }
+
+    public Map<String, SimplificationMethod> getLayerSimplificationMethods() {
+        return layerSimplificationMethods;
+    }
+
+    /**
+     * The simplification methods of some layers, indexed by table name. They
+     * are applied to the feature types built afterwards.
+     *
+     * @param layerSimplificationMethods
+     * @see H2GISDataStoreFactory#LAYER_SIMPLIFICATION_METHODS
+     */
+    public void setLayerSimplificationMethods(Map<String, SimplificationMethod> layerSimplificationMethods) {
+        this.layerSimplificationMethods = layerSimplificationMethods;
+    }
+
+    public int getSimplificationVertexCap() {
+        return simplificationVertexCap;
+    }
+
+    /**
+     * Number of vertices over which a geometry is simplified by
+     * {@link SimplificationMethod#VERTEX_CAP}
+     *
+     * @param simplificationVertexCap
+     */
+    public void setSimplificationVertexCap(int simplificationVertexCap) {
+        this.simplificationVertexCap = simplificationVertexCap;
+    }
+
+    public int getSequenceBlockSize() {
+        return sequenceBlockSize;
+    }
+
+    /**
+     * Number of values drawn from a sequence at once, the values not used when
+     * the data store is disposed are lost. The drawn values are not checked
+     * again, a sequence restarted outside of the store needs a call to
+     * {@link #resetSequenceValues()}.
+     *
+     * @param sequenceBlockSize
+     * @see H2GISDataStoreFactory#SEQUENCE_BLOCK_SIZE
+     */
+    public void setSequenceBlockSize(int sequenceBlockSize) {
+        this.sequenceBlockSize = sequenceBlockSize;
+    }
+    
     /**
      * @param functionEncodingEnabled
      * @see h2GISDataStoreFactory#ENCODE_FUNCTIONS
@@ -701,9 +1127,122 @@ public class H2GISDialect extends BasicSQLDialect {
         if (!isSimplifyEnabled()) {
             super.encodeGeometryColumnSimplified(gatt, prefix, srid, sql, distance);
         } else {
-            sql.append("ST_ASBinary(ST_Simplify(");
-            encodeColumnName(prefix, gatt.getLocalName(), sql);
-            sql.append(", ").append(distance).append("))");
+            if (!nativeGeometryEnabled) {
+                sql.append("ST_AsBinary(");
+            }
+            PyramidLevel level = getPyramidLevel(gatt, distance);
+            if (level != null) {
+                encodePyramidLevel(level, prefix, sql);
+            } else {
+                StringBuffer column = new StringBuffer();
+                encodeColumnName(prefix, gatt.getLocalName(), column);
+                getSimplificationMethod(gatt).encode(column.toString(), distance, simplificationVertexCap, sql);
+            }
+            if (!nativeGeometryEnabled) {
+                sql.append(")");
+            }
+        }
+    }
+
+    /**
+     * The simplification method of the layer of a geometry column, or else
+     * the one of the store
+     */
+    private SimplificationMethod getSimplificationMethod(GeometryDescriptor gatt) {
+        Object method = gatt.getUserData().get(SIMPLIFICATION_METHOD);
+        return method instanceof SimplificationMethod ? (SimplificationMethod) method : simplificationMethod;
+    }
+
+    /**
+     * The coarsest pyramid level whose tolerance does not exceed the distance
+     */
+    private PyramidLevel getPyramidLevel(GeometryDescriptor gatt, Double distance) {
+        Object levels = gatt.getUserData().get(PYRAMID_LEVELS);
+        PyramidLevel selected = null;
+        if (levels instanceof List && distance != null) {
+            for (Object level : (List<?>) levels) {
+                if (level instanceof PyramidLevel && ((PyramidLevel) level).getTolerance() <= distance) {
+                    selected = (PyramidLevel) level;
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Read the geometry of the row from a pyramid level, through its primary
+     * key. The FROM clause is written by GeoTools, so the rows of the layer
+     * table, full resolution geometry included, are still read from storage
+     * and filtered on its own index; only the geometries sent back are the
+     * simplified ones.
+     */
+    private void encodePyramidLevel(PyramidLevel level, String prefix, StringBuffer sql) {
+        sql.append("(SELECT L.");
+        encodeColumnName(null, level.getColumn(), sql);
+        sql.append(" FROM ");
+        encodeSchemaName(level.getSchema(), sql);
+        sql.append(".");
+        encodeTableName(level.getLevelTable(), sql);
+        sql.append(" L WHERE L.");
+        encodeColumnName(null, level.getKeyColumn(), sql);
+        sql.append(" = ");
+        if (prefix != null) {
+            encodeColumnName(prefix, level.getKeyColumn(), sql);
+        } else {
+            encodeSchemaName(level.getSchema(), sql);
+            sql.append(".");
+            encodeTableName(level.getTable(), sql);
+            sql.append(".");
+            encodeColumnName(null, level.getKeyColumn(), sql);
+        }
+        sql.append(")");
+    }
+
+    @Override
+    public void postCreateFeatureType(SimpleFeatureType featureType, DatabaseMetaData metadata,
+            String schemaName, Connection cx) throws SQLException {
+        SimplificationMethod method = layerSimplificationMethods.get(featureType.getTypeName());
+        List<PyramidLevel> levels = H2GISPyramids.getLevels(cx, getSchemaName(schemaName),
+                featureType.getTypeName());
+        for (AttributeDescriptor att : featureType.getAttributeDescriptors()) {
+            if (att instanceof GeometryDescriptor) {
+                if (method != null) {
+                    att.getUserData().put(SIMPLIFICATION_METHOD, method);
+                }
+                List<PyramidLevel> columnLevels = new ArrayList<PyramidLevel>();
+                for (PyramidLevel level : levels) {
+                    if (level.getColumn().equals(att.getLocalName())) {
+                        columnLevels.add(level);
+                    }
+                }
+                if (!columnLevels.isEmpty()) {
+                    att.getUserData().put(PYRAMID_LEVELS, columnLevels);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The GEOMETRY_COLUMNS metadata of a geometry column
+     */
+    static final class GeometryColumn {
+
+        volatile Integer srid;
+        volatile Integer dimension;
+        volatile String type;
+    }
+    
+    /**
+     * A WKB reader and the geometry factory it builds the geometries with
+     */
+    private static final class FactoryWKBReader {
+
+        final GeometryFactory factory;
+        final WKBReader reader;
+
+        FactoryWKBReader(GeometryFactory factory) {
+            this.factory = factory;
+            this.reader = new WKBReader(factory);
         }
     }
     
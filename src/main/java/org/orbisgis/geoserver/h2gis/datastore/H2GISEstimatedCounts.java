@@ -0,0 +1,163 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.geotools.util.logging.Logging;
+import org.h2.tools.SimpleResultSet;
+
+/**
+ * Answers the unfiltered counts from the row count kept by H2 for each
+ * table, INFORMATION_SCHEMA.TABLES.ROW_COUNT_ESTIMATE, instead of running
+ * the count.
+ *
+ * The GeoTools dialects have no hook for the counts, so the connections of
+ * the store are wrapped and the count queries built by the store for a
+ * whole table, SELECT count(*) FROM "schema"."table", are recognized. The
+ * estimate is the number of rows including the ones of the transactions not
+ * committed yet. The views and the linked tables are counted as before.
+ */
+public final class H2GISEstimatedCounts {
+
+    private static final Logger LOGGER = Logging.getLogger(H2GISEstimatedCounts.class);
+
+    private static final Pattern COUNT = Pattern.compile(
+            "\\s*SELECT\\s+count\\(\\*\\)\\s+FROM\\s+(?:\"([^\"]+)\"\\.)?\"([^\"]+)\"\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final String ESTIMATE = "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES"
+            + " WHERE TABLE_SCHEMA = COALESCE(?, SCHEMA()) AND TABLE_NAME = ? AND TABLE_TYPE = 'TABLE'";
+
+    private H2GISEstimatedCounts() {
+    }
+
+    /**
+     * Wrap a connection of the store so that its unfiltered counts are
+     * estimated
+     *
+     * @param cx
+     * @return
+     */
+    public static Connection wrap(Connection cx) {
+        return JDBCProxies.wrap(Connection.class, new ConnectionHandler(cx));
+    }
+
+    /**
+     * @param sql
+     * @return the schema, may be null, and the table of an unfiltered count,
+     * null for the other queries
+     */
+    static String[] getCountedTable(String sql) {
+        Matcher matcher = COUNT.matcher(sql);
+        if (matcher.matches()) {
+            return new String[]{matcher.group(1), matcher.group(2)};
+        }
+        return null;
+    }
+
+    /**
+     * Only the statements that can run a count are wrapped
+     */
+    private static final class ConnectionHandler extends JDBCProxies.AbstractConnectionHandler {
+
+        ConnectionHandler(Connection target) {
+            super(target);
+        }
+
+        @Override
+        JDBCProxies.Handler createStatementHandler(Statement st, String sql, Connection connection) {
+            String[] table = sql != null ? getCountedTable(sql) : null;
+            if (sql != null && table == null) {
+                return null;
+            }
+            return new StatementHandler(st, sql, table, target, connection);
+        }
+    }
+
+    /**
+     * Replaces the counts by a read of the table statistics
+     */
+    private static final class StatementHandler extends JDBCProxies.AbstractStatementHandler {
+
+        private final String[] preparedTable;
+        private final Connection cx;
+
+        StatementHandler(Statement target, String sql, String[] preparedTable, Connection cx,
+                Connection connection) {
+            super(target, sql, connection);
+            this.preparedTable = preparedTable;
+            this.cx = cx;
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("executeQuery")) {
+                String[] table = args != null && args.length == 1
+                        ? getCountedTable((String) args[0]) : preparedTable;
+                ResultSet estimate = table != null ? estimate(table) : null;
+                if (estimate != null) {
+                    return estimate;
+                }
+            }
+            return super.handle(proxy, method, args);
+        }
+
+        /**
+         * @return the estimated count or null if the table has no statistics
+         */
+        private ResultSet estimate(String[] table) throws SQLException {
+            PreparedStatement ps = cx.prepareStatement(ESTIMATE);
+            try {
+                ps.setString(1, table[0]);
+                ps.setString(2, table[1]);
+                ResultSet rs = ps.executeQuery();
+                try {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    LOGGER.fine("Estimated count of " + table[1]);
+                    SimpleResultSet count = new SimpleResultSet();
+                    count.addColumn("COUNT(*)", Types.BIGINT, 19, 0);
+                    count.addRow(rs.getLong(1));
+                    return count;
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                ps.close();
+            }
+        }
+    }
+}
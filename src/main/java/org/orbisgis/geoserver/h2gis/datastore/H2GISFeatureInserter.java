@@ -0,0 +1,442 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.data.FeatureStore;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.Hints;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.jdbc.AutoGeneratedPrimaryKeyColumn;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCFeatureSource;
+import org.geotools.jdbc.JDBCFeatureStore;
+import org.geotools.jdbc.NonIncrementingPrimaryKeyColumn;
+import org.geotools.jdbc.PrimaryKey;
+import org.geotools.jdbc.PrimaryKeyColumn;
+import org.geotools.jdbc.SQLDialect;
+import org.geotools.jdbc.SequencedPrimaryKeyColumn;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.identity.FeatureId;
+
+/**
+ * Inserts features into an H2GIS table with JDBC batches.
+ *
+ * This is a standalone API for bulk loads, the feature stores of the data
+ * store, and so the WFS-T inserts, still write one row at a time.
+ *
+ * The primary keys are drawn from the sequence of the table by blocks, the
+ * geometries are sent as WKB and a whole batch is executed in one round trip.
+ * With {@link Transaction#AUTO_COMMIT} each batch is committed on its own, so
+ * a failure leaves the previous batches in the table. Inside a transaction
+ * nothing is committed, the transaction owns the connection.
+ *
+ * The tables with a composite primary key, or without a sequence to draw the
+ * keys from, are written through the regular feature store.
+ */
+public class H2GISFeatureInserter {
+
+    private static final Logger LOGGER = Logging.getLogger(H2GISFeatureInserter.class);
+
+    private static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+
+    private final JDBCDataStore dataStore;
+    private final String typeName;
+    private int batchSize = 1000;
+
+    /**
+     *
+     * @param dataStore an H2GIS data store
+     * @param typeName the table to insert into
+     */
+    public H2GISFeatureInserter(JDBCDataStore dataStore, String typeName) {
+        this.dataStore = dataStore;
+        this.typeName = typeName;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Number of features sent to the database in one round trip
+     *
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Insert the features
+     *
+     * @param features
+     * @param transaction
+     * @return the identifiers of the inserted features, in the order of the
+     * collection
+     * @throws IOException
+     */
+    public List<FeatureId> insert(FeatureCollection<SimpleFeatureType, SimpleFeature> features,
+            Transaction transaction) throws IOException {
+        SimpleFeatureSource featureSource = dataStore.getFeatureSource(typeName);
+        SimpleFeatureType featureType = featureSource.getSchema();
+        PrimaryKey primaryKey = getPrimaryKey(featureSource);
+        Connection cx = dataStore.getConnection(transaction);
+        try {
+            KeyGenerator keys = primaryKey != null && primaryKey.getColumns().size() == 1
+                    ? createKeyGenerator(primaryKey.getColumns().get(0), cx) : null;
+            if (keys == null) {
+                LOGGER.log(Level.FINE, "No batch insert for {0}, its keys can not be drawn in advance",
+                        typeName);
+                return addFeatures(featureSource, features, transaction);
+            }
+            return insert(features, featureType, keys, cx, transaction == Transaction.AUTO_COMMIT);
+        } catch (SQLException e) {
+            throw new IOException("Failed to insert the features in " + typeName, e);
+        } finally {
+            if (transaction == Transaction.AUTO_COMMIT) {
+                dataStore.closeSafe(cx);
+            }
+        }
+    }
+
+    private List<FeatureId> insert(FeatureCollection<SimpleFeatureType, SimpleFeature> features,
+            SimpleFeatureType featureType, KeyGenerator keys, Connection cx, boolean commit)
+            throws SQLException, IOException {
+        H2GISPSDialect dialect = new H2GISPSDialect(dataStore, H2GISPSDialect.getH2GISDialect(dataStore));
+        List<AttributeDescriptor> attributes = new ArrayList<AttributeDescriptor>();
+        for (AttributeDescriptor att : featureType.getAttributeDescriptors()) {
+            if (!att.getLocalName().equals(keys.column.getName())) {
+                attributes.add(att);
+            }
+        }
+        String sql = insertSQL(dialect, featureType, keys.column, attributes);
+        LOGGER.fine(sql);
+
+        List<FeatureId> ids = new ArrayList<FeatureId>();
+        boolean autoCommit = cx.getAutoCommit();
+        if (commit) {
+            cx.setAutoCommit(false);
+        }
+        boolean done = false;
+        H2GISResultCache.modifying(cx, featureType.getTypeName());
+        PreparedStatement ps = cx.prepareStatement(sql);
+        H2GISQueryMetrics.modifying(ps, featureType.getTypeName());
+        FeatureIterator<SimpleFeature> it = features.features();
+        try {
+            int count = 0;
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                Object key = keys.next(feature, cx);
+                dialect.setValue(key, keys.column.getType(), ps, 1, cx);
+                int column = 2;
+                for (AttributeDescriptor att : attributes) {
+                    Object value = feature.getAttribute(att.getLocalName());
+                    if (att instanceof GeometryDescriptor) {
+                        dialect.setGeometryValue((Geometry) value, getDimension((GeometryDescriptor) att),
+                                getSRID((GeometryDescriptor) att), att.getType().getBinding(), ps, column);
+                    } else {
+                        dialect.setValue(value, att.getType().getBinding(), ps, column, cx);
+                    }
+                    column++;
+                }
+                ps.addBatch();
+                ids.add(FF.featureId(typeName + "." + key));
+                if (++count % batchSize == 0) {
+                    executeBatch(ps, cx, commit);
+                }
+            }
+            if (count % batchSize != 0) {
+                executeBatch(ps, cx, commit);
+            }
+            done = true;
+        } finally {
+            it.close();
+            dataStore.closeSafe(ps);
+            if (commit) {
+                // whatever failed, restoring the auto commit must not commit the current batch
+                try {
+                    if (!done) {
+                        cx.rollback();
+                    }
+                } finally {
+                    cx.setAutoCommit(autoCommit);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void executeBatch(PreparedStatement ps, Connection cx, boolean commit) throws SQLException {
+        ps.executeBatch();
+        if (commit) {
+            cx.commit();
+        }
+    }
+
+    private String insertSQL(H2GISPSDialect dialect, SimpleFeatureType featureType,
+            PrimaryKeyColumn keyColumn, List<AttributeDescriptor> attributes) {
+        StringBuffer sql = new StringBuffer("INSERT INTO ");
+        if (dataStore.getDatabaseSchema() != null) {
+            dialect.encodeSchemaName(dataStore.getDatabaseSchema(), sql);
+            sql.append(".");
+        }
+        dialect.encodeTableName(featureType.getTypeName(), sql);
+        sql.append(" (");
+        dialect.encodeColumnName(null, keyColumn.getName(), sql);
+        for (AttributeDescriptor att : attributes) {
+            sql.append(", ");
+            dialect.encodeColumnName(null, att.getLocalName(), sql);
+        }
+        sql.append(") VALUES (?");
+        for (AttributeDescriptor att : attributes) {
+            sql.append(", ");
+            if (att instanceof GeometryDescriptor) {
+                // ST_GeomFromWKB returns null for a null WKB, the same statement fits all the rows
+                int srid = getSRID((GeometryDescriptor) att);
+                if (srid > 0) {
+                    sql.append("ST_GeomFromWKB(?, ").append(srid).append(")");
+                } else {
+                    sql.append("ST_GeomFromWKB(?)");
+                }
+            } else {
+                sql.append("?");
+            }
+        }
+        sql.append(")");
+        return sql.toString();
+    }
+
+    private List<FeatureId> addFeatures(SimpleFeatureSource featureSource,
+            FeatureCollection<SimpleFeatureType, SimpleFeature> features, Transaction transaction)
+            throws IOException {
+        if (!(featureSource instanceof FeatureStore)) {
+            throw new IOException(typeName + " is read only");
+        }
+        FeatureStore<SimpleFeatureType, SimpleFeature> store
+                = (FeatureStore<SimpleFeatureType, SimpleFeature>) featureSource;
+        store.setTransaction(transaction);
+        try {
+            return store.addFeatures(features);
+        } finally {
+            store.setTransaction(Transaction.AUTO_COMMIT);
+        }
+    }
+
+    private static PrimaryKey getPrimaryKey(SimpleFeatureSource featureSource) {
+        if (featureSource instanceof JDBCFeatureStore) {
+            return ((JDBCFeatureStore) featureSource).getPrimaryKey();
+        } else if (featureSource instanceof JDBCFeatureSource) {
+            return ((JDBCFeatureSource) featureSource).getPrimaryKey();
+        }
+        return null;
+    }
+
+    private static int getSRID(GeometryDescriptor gd) {
+        Integer srid = (Integer) gd.getUserData().get(JDBCDataStore.JDBC_NATIVE_SRID);
+        return srid != null ? srid : 0;
+    }
+
+    private static int getDimension(GeometryDescriptor gd) {
+        Integer dimension = (Integer) gd.getUserData().get(Hints.COORDINATE_DIMENSION);
+        return dimension != null ? dimension : 2;
+    }
+
+    /**
+     * Build the generator of the key values, null if the keys can not be
+     * known before the insert
+     *
+     * @param column
+     * @param cx
+     * @return
+     * @throws SQLException
+     */
+    private KeyGenerator createKeyGenerator(PrimaryKeyColumn column, Connection cx) throws SQLException {
+        String schema = dataStore.getDatabaseSchema();
+        if (column instanceof SequencedPrimaryKeyColumn) {
+            return new SequenceKeyGenerator(column, schema,
+                    ((SequencedPrimaryKeyColumn) column).getSequenceName());
+        } else if (column instanceof AutoGeneratedPrimaryKeyColumn) {
+            // the auto increment columns of H2 are backed by a sequence
+            String sequence = getColumnSequence(schema, column.getName(), cx);
+            return sequence != null ? new SequenceKeyGenerator(column, schema, sequence) : null;
+        } else if (column instanceof NonIncrementingPrimaryKeyColumn
+                && Number.class.isAssignableFrom(column.getType())) {
+            return new MaxKeyGenerator(column, schema, cx);
+        }
+        return null;
+    }
+
+    private String getColumnSequence(String schema, String column, Connection cx) throws SQLException {
+        PreparedStatement ps = cx.prepareStatement("SELECT SEQUENCE_NAME FROM INFORMATION_SCHEMA.COLUMNS"
+                + " WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? AND COLUMN_NAME = ?");
+        try {
+            ps.setString(1, schema != null ? schema : "PUBLIC");
+            ps.setString(2, typeName);
+            ps.setString(3, column);
+            ResultSet rs = ps.executeQuery();
+            try {
+                return rs.next() ? rs.getString(1) : null;
+            } finally {
+                dataStore.closeSafe(rs);
+            }
+        } finally {
+            dataStore.closeSafe(ps);
+        }
+    }
+
+    /**
+     * Provides the key value of each inserted feature
+     */
+    private abstract class KeyGenerator {
+
+        final PrimaryKeyColumn column;
+
+        KeyGenerator(PrimaryKeyColumn column) {
+            this.column = column;
+        }
+
+        Object next(SimpleFeature feature, Connection cx) throws SQLException {
+            if (Boolean.TRUE.equals(feature.getUserData().get(Hints.USE_PROVIDED_FID))) {
+                String fid = feature.getID();
+                if (fid.startsWith(typeName + ".")) {
+                    fid = fid.substring(typeName.length() + 1);
+                }
+                Object key = Converters.convert(fid, column.getType());
+                if (key != null) {
+                    provided(key);
+                    return key;
+                }
+            }
+            return generate(cx);
+        }
+
+        /**
+         * Called with the keys given by the features
+         */
+        void provided(Object key) {
+        }
+
+        abstract Object generate(Connection cx) throws SQLException;
+    }
+
+    /**
+     * Draws the keys from a sequence, one block for each batch
+     */
+    private class SequenceKeyGenerator extends KeyGenerator {
+
+        private final String schema;
+        private final String sequence;
+        private final LinkedList<Long> values = new LinkedList<Long>();
+
+        SequenceKeyGenerator(PrimaryKeyColumn column, String schema, String sequence) {
+            super(column);
+            this.schema = schema;
+            this.sequence = sequence;
+        }
+
+        @Override
+        Object generate(Connection cx) throws SQLException {
+            if (values.isEmpty()) {
+                values.addAll(H2GISPSDialect.getH2GISDialect(dataStore)
+                        .allocateSequenceValues(schema, sequence, batchSize, cx));
+                if (values.isEmpty()) {
+                    throw new SQLException("The sequence " + sequence + " does not exist");
+                }
+            }
+            return Converters.convert(values.poll(), column.getType());
+        }
+    }
+
+    /**
+     * Increments the greatest key of the table, the way GeoTools does for the
+     * keys without sequence
+     */
+    private class MaxKeyGenerator extends KeyGenerator {
+
+        private long last;
+
+        MaxKeyGenerator(PrimaryKeyColumn column, String schema, Connection cx) throws SQLException {
+            super(column);
+            StringBuffer sql = new StringBuffer("SELECT MAX(");
+            SQLDialect dialect = dataStore.getSQLDialect();
+            dialect.encodeColumnName(null, column.getName(), sql);
+            sql.append(") FROM ");
+            if (schema != null) {
+                dialect.encodeSchemaName(schema, sql);
+                sql.append(".");
+            }
+            dialect.encodeTableName(typeName, sql);
+            Statement st = cx.createStatement();
+            try {
+                ResultSet rs = st.executeQuery(sql.toString());
+                try {
+                    rs.next();
+                    last = rs.getLong(1);
+                } finally {
+                    dataStore.closeSafe(rs);
+                }
+            } finally {
+                dataStore.closeSafe(st);
+            }
+        }
+
+        @Override
+        void provided(Object key) {
+            if (key instanceof Number) {
+                last = Math.max(last, ((Number) key).longValue());
+            }
+        }
+
+        @Override
+        Object generate(Connection cx) {
+            return Converters.convert(++last, column.getType());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.data.Transaction;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.util.logging.Logging;
+import org.h2gis.utilities.TableLocation;
+
+/**
+ * Loads a file into a new table with the native readers of H2GIS, the
+ * features are never built on the GeoTools side.
+ *
+ * The supported formats are shapefile (SHPRead), dBase (DBFRead), GeoJSON
+ * (GeoJsonRead) and CSV (CSVREAD). Once loaded, the geometry columns of the
+ * table get a spatial index and the metadata cached by the dialect are
+ * refreshed, the table can be published right away. The file is loaded into
+ * a new table which only replaces the existing one once the file is read.
+ *
+ * This is the API an import end point would call, no GeoServer REST hook is
+ * part of this module.
+ */
+public class H2GISFileImporter {
+
+    private static final Logger LOGGER = Logging.getLogger(H2GISFileImporter.class);
+
+    private final JDBCDataStore dataStore;
+
+    /**
+     *
+     * @param dataStore an H2GIS data store
+     */
+    public H2GISFileImporter(JDBCDataStore dataStore) {
+        this.dataStore = dataStore;
+    }
+
+    /**
+     * Check if the format of a file can be imported
+     *
+     * @param file
+     * @return
+     */
+    public static boolean canImport(File file) {
+        return getImportSQL(file, "T") != null;
+    }
+
+    /**
+     * Load a file into a new table
+     *
+     * @param file the file to load, its extension gives the format
+     * @param tableName name of the table to create
+     * @param overwrite true to replace an existing table
+     * @return the type name of the new table
+     * @throws IOException if the format is not supported, the table already
+     * exists or the file can not be read
+     */
+    public String importFile(File file, String tableName, boolean overwrite) throws IOException {
+        String schemaName = dataStore.getDatabaseSchema();
+        String schema = schemaName != null ? schemaName : "";
+        String location = new TableLocation(schema, tableName).toString();
+        // loaded aside first, the existing table is only replaced once the file is read
+        String importName = tableName + "_IMPORT_" + System.currentTimeMillis();
+        String importLocation = new TableLocation(schema, importName).toString();
+        String sql = getImportSQL(file, importLocation);
+        if (sql == null) {
+            throw new IOException("Unsupported file format " + file.getName());
+        }
+        H2GISDialect dialect = H2GISPSDialect.getH2GISDialect(dataStore);
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        try {
+            String tableType = getTableType(schemaName, tableName, cx);
+            if (!overwrite && tableType != null) {
+                throw new IOException("The table " + tableName + " already exists");
+            }
+            Statement st = cx.createStatement();
+            try {
+                LOGGER.fine(sql);
+                try {
+                    st.execute(sql);
+                } catch (SQLException e) {
+                    st.execute("DROP TABLE IF EXISTS " + importLocation);
+                    throw e;
+                }
+                if (tableType != null) {
+                    H2GISResultCache.modifying(cx, tableName);
+                    st.execute(("VIEW".equals(tableType) ? "DROP VIEW " : "DROP TABLE ") + location);
+                }
+                st.execute("ALTER TABLE " + importLocation + " RENAME TO "
+                        + new TableLocation(tableName).toString());
+            } finally {
+                dataStore.closeSafe(st);
+            }
+            for (String column : getGeometryColumns(schemaName, tableName, cx)) {
+                if (dialect.createSpatialIndex(schemaName, tableName, column, cx)) {
+                    LOGGER.log(Level.FINE, "Spatial index created on {0}.{1}",
+                            new Object[]{tableName, column});
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to import " + file.getPath() + " into " + tableName, e);
+        } finally {
+            dialect.resetGeometryColumns(schemaName);
+            dataStore.closeSafe(cx);
+        }
+        return tableName;
+    }
+
+    /**
+     * The query loading a file with the reader of its format, null if the
+     * format is not supported
+     *
+     * @param file
+     * @param location the quoted name of the table
+     * @return
+     */
+    private static String getImportSQL(File file, String location) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        String extension = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        String path = quote(file.getAbsolutePath());
+        String table = quote(location);
+        if ("shp".equals(extension)) {
+            return "CALL SHPRead(" + path + ", " + table + ")";
+        } else if ("dbf".equals(extension)) {
+            return "CALL DBFRead(" + path + ", " + table + ")";
+        } else if ("geojson".equals(extension) || "json".equals(extension)) {
+            return "CALL GeoJsonRead(" + path + ", " + table + ")";
+        } else if ("csv".equals(extension)) {
+            return "CREATE TABLE " + location + " AS SELECT * FROM CSVREAD(" + path + ")";
+        }
+        return null;
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * The type of a table, views included, null if it does not exist
+     */
+    private String getTableType(String schemaName, String tableName, Connection cx)
+            throws SQLException {
+        PreparedStatement ps = cx.prepareStatement("SELECT TABLE_TYPE FROM INFORMATION_SCHEMA.TABLES"
+                + " WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ?");
+        try {
+            ps.setString(1, schemaName != null ? schemaName : "PUBLIC");
+            ps.setString(2, tableName);
+            ResultSet rs = ps.executeQuery();
+            try {
+                return rs.next() ? rs.getString(1) : null;
+            } finally {
+                dataStore.closeSafe(rs);
+            }
+        } finally {
+            dataStore.closeSafe(ps);
+        }
+    }
+
+    private List<String> getGeometryColumns(String schemaName, String tableName, Connection cx)
+            throws SQLException {
+        List<String> columns = new ArrayList<String>();
+        PreparedStatement ps = cx.prepareStatement("SELECT F_GEOMETRY_COLUMN FROM GEOMETRY_COLUMNS"
+                + " WHERE F_TABLE_SCHEMA = ? AND F_TABLE_NAME = ?");
+        try {
+            ps.setString(1, schemaName != null ? schemaName : "PUBLIC");
+            ps.setString(2, tableName);
+            ResultSet rs = ps.executeQuery();
+            try {
+                while (rs.next()) {
+                    columns.add(rs.getString(1));
+                }
+            } finally {
+                dataStore.closeSafe(rs);
+            }
+        } finally {
+            dataStore.closeSafe(ps);
+        }
+        return columns;
+    }
+}
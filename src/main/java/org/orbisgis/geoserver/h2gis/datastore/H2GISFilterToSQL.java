@@ -26,9 +26,13 @@
 package org.orbisgis.geoserver.h2gis.datastore;
 
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.io.WKBWriter;
 import java.io.IOException;
 import org.geotools.data.jdbc.FilterToSQL;
+import org.geotools.data.jdbc.FilterToSQLException;
 import org.geotools.filter.FilterCapabilities;
+import org.opengis.filter.Filter;
 import org.opengis.filter.expression.Expression;
 import org.opengis.filter.expression.Function;
 import org.opengis.filter.expression.Literal;
@@ -44,8 +48,10 @@ public class H2GISFilterToSQL extends FilterToSQL {
 
     H2GISFilterToSQLHelper h2GISFilterToSQLHelper;
     private boolean functionEncodingEnabled;
+    private final H2GISDialect dialect;
 
     public H2GISFilterToSQL(H2GISDialect dialect) {
+        this.dialect = dialect;
         h2GISFilterToSQLHelper = new H2GISFilterToSQLHelper(this);
     }   
 
@@ -53,18 +59,31 @@ public class H2GISFilterToSQL extends FilterToSQL {
     protected void visitLiteralGeometry(Literal expression) throws IOException {
         // evaluate the literal and store it for later
         Geometry geom = (Geometry) evaluateLiteral(expression, Geometry.class);
-        out.write("ST_GeomFromText('");
-        out.write(geom.toText());
+        if (geom instanceof LinearRing) {
+            //h2gis does not handle linear rings, convert to just a line string
+            geom = geom.getFactory().createLineString(((LinearRing) geom).getCoordinateSequence());
+        }
+        // a WKB hex literal is more compact than WKT and quicker to decode,
+        // H2 evaluates the constant function once for the whole query
+        out.write("ST_GeomFromWKB(X'");
+        out.write(WKBWriter.toHex(new WKBWriter().write(geom)));
         if (currentSRID == null && currentGeometry != null) {
-        // if we don't know at all, use the srid of the geometry we're comparing against
-        // (much slower since that has to be extracted record by record as opposed to
-        // being a constant)
+        // virtual tables without declared srid, use the srid of the geometry we're
+        // comparing against (much slower since that has to be extracted record by
+        // record as opposed to being a constant)
             out.write("', ST_SRID(\"" + currentGeometry.getLocalName() + "\"))");
         } else {
             out.write("', " + currentSRID + ")");
         }
     }
 
+    @Override
+    public void encode(Filter filter) throws FilterToSQLException {
+        // kept for the slow query log
+        H2GISSlowQueryLog.encoding(featureType, filter);
+        super.encode(filter);
+    }
+
     @Override
     protected FilterCapabilities createFilterCapabilities() {
         return H2GISFilterToSQLHelper.createFilterCapabilities(functionEncodingEnabled);
@@ -74,7 +93,12 @@ public class H2GISFilterToSQL extends FilterToSQL {
     protected Object visitBinarySpatialOperator(BinarySpatialOperator filter,
             PropertyName property, Literal geometry, boolean swapped,
             Object extraData) {
+        if (currentSRID == null && currentGeometry != null && dialect != null) {
+            // resolved once when the sql is built, not for each row
+            currentSRID = dialect.getNativeSRID(featureType, currentGeometry);
+        }
         h2GISFilterToSQLHelper.out = out;
+        h2GISFilterToSQLHelper.currentSRID = currentSRID;
         return h2GISFilterToSQLHelper.visitBinarySpatialOperator(filter, property, geometry,
                 swapped, extraData);
     }
@@ -25,6 +25,8 @@
  */
 package org.orbisgis.geoserver.h2gis.datastore;
 
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 import java.io.IOException;
 import java.io.Writer;
 import java.math.BigDecimal;
@@ -34,6 +36,7 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.List;
 import org.geotools.data.jdbc.FilterToSQL;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.filter.FilterCapabilities;
 import org.geotools.filter.function.FilterFunction_strConcat;
 import org.geotools.filter.function.FilterFunction_strEndsWith;
@@ -56,6 +59,7 @@ import org.geotools.filter.function.math.FilterFunction_ceil;
 import org.geotools.filter.function.math.FilterFunction_exp;
 import org.geotools.filter.function.math.FilterFunction_floor;
 import org.geotools.jdbc.SQLDialect;
+import org.opengis.filter.FilterFactory;
 import org.opengis.filter.expression.Expression;
 import org.opengis.filter.expression.Function;
 import org.opengis.filter.expression.Literal;
@@ -82,8 +86,18 @@ import org.opengis.filter.spatial.Within;
 public class H2GISFilterToSQLHelper {
 
     
+    private static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+    
+    private static final FilterCapabilities CAPABILITIES = buildFilterCapabilities(false);
+    
+    private static final FilterCapabilities FUNCTION_CAPABILITIES = buildFilterCapabilities(true);
+    
     FilterToSQL filterToSQL;
     Writer out;
+    /**
+     * SRID of the geometry column the filter is applied to, null if unknown
+     */
+    Integer currentSRID;
 
     /**
      * 
@@ -94,11 +108,19 @@ public class H2GISFilterToSQLHelper {
     }
 
     /**
-     * 
+     * The capabilities are built once, a filter encoder is created for each
+     * query and gets its own copy, the encoders may change them
+     *
      * @param encodeFunctions
      * @return 
      */
     public static FilterCapabilities createFilterCapabilities(boolean encodeFunctions) {
+        FilterCapabilities caps = new FilterCapabilities();
+        caps.addAll(encodeFunctions ? FUNCTION_CAPABILITIES : CAPABILITIES);
+        return caps;
+    }
+
+    private static FilterCapabilities buildFilterCapabilities(boolean encodeFunctions) {
         FilterCapabilities caps = new FilterCapabilities();
         caps.addAll(SQLDialect.BASE_DBMS_CAPABILITIES);
         //adding the spatial filters support
@@ -197,24 +219,36 @@ public class H2GISFilterToSQLHelper {
    private void visitDistanceSpatialOperator(DistanceBufferOperator filter,
             PropertyName property, Literal geometry, boolean swapped,
             Object extraData) throws IOException {
+        double distance = filter.getDistance();
         if ((filter instanceof DWithin && !swapped)
                 || (filter instanceof Beyond && swapped)) {
-            out.write("ST_DWithin(");
+            // the envelope expanded by the distance lets H2 use the spatial index
+            property.accept(filterToSQL, extraData);
+            out.write(" && ");
+            visitEnvelope(geometry, distance, extraData);
+            out.write(" AND ST_DWithin(");
             property.accept(filterToSQL, extraData);
             out.write(",");
             geometry.accept(filterToSQL, extraData);
             out.write(",");
-            out.write(String.valueOf(filter.getDistance()));
+            out.write(String.valueOf(distance));
             out.write(")");
         }
         if ((filter instanceof DWithin && swapped)
                 || (filter instanceof Beyond && !swapped)) {
-            out.write("ST_Distance(");
+            // the rows out of the expanded envelope are beyond the distance,
+            // the exact distance is only computed for the other ones
+            out.write("(NOT (");
+            property.accept(filterToSQL, extraData);
+            out.write(" && ");
+            visitEnvelope(geometry, distance, extraData);
+            out.write(") OR ST_Distance(");
             property.accept(filterToSQL, extraData);
             out.write(",");
             geometry.accept(filterToSQL, extraData);
             out.write(") > ");
-            out.write(Double.toString(filter.getDistance()));
+            out.write(Double.toString(distance));
+            out.write(")");
         }
     }
 
@@ -235,16 +269,71 @@ public class H2GISFilterToSQLHelper {
         if (!(filter instanceof Disjoint)) {
             property.accept(filterToSQL, extraData);
             out.write(" && ");
-            geometry.accept(filterToSQL, extraData);
+            visitEnvelope(geometry, 0, extraData);
          // if we're just encoding a bbox in loose mode, we're done
             if (filter instanceof BBOX) {
                 return;
             }
             out.write(" AND ");
+        } else {
+            // the rows whose envelope does not meet the literal envelope are
+            // disjoint, the exact test is only run for the other ones
+            out.write("(NOT (");
+            property.accept(filterToSQL, extraData);
+            out.write(" && ");
+            visitEnvelope(geometry, 0, extraData);
+            out.write(") OR ");
+            visitBinarySpatialOperator(filter, (Expression) property, (Expression) geometry, swapped, extraData);
+            out.write(")");
+            return;
         }
         visitBinarySpatialOperator(filter, (Expression) property, (Expression) geometry, swapped, extraData);
     }
 
+    /**
+     * Encode the envelope of a literal geometry with ST_MakeEnvelope, && only
+     * compares the envelopes and the ordinates are cheaper to write and to
+     * read than the whole geometry
+     *
+     * @param geometry
+     * @param distance the envelope is expanded by this distance
+     * @param extraData
+     * @throws IOException
+     */
+    private void visitEnvelope(Literal geometry, double distance, Object extraData) throws IOException {
+        Geometry geom = geometry.evaluate(null, Geometry.class);
+        if (geom == null || geom.isEmpty()) {
+            geometry.accept(filterToSQL, extraData);
+            return;
+        }
+        Envelope envelope = new Envelope(geom.getEnvelopeInternal());
+        if (distance > 0) {
+            envelope.expandBy(distance);
+        }
+        out.write("ST_MakeEnvelope(");
+        visitOrdinate(envelope.getMinX());
+        out.write(", ");
+        visitOrdinate(envelope.getMinY());
+        out.write(", ");
+        visitOrdinate(envelope.getMaxX());
+        out.write(", ");
+        visitOrdinate(envelope.getMaxY());
+        if (currentSRID != null) {
+            out.write(", " + currentSRID);
+        }
+        out.write(")");
+    }
+
+    /**
+     * Written as a number, or bound as a parameter by the prepared statement
+     * visitor
+     *
+     * @param ordinate
+     */
+    private void visitOrdinate(double ordinate) {
+        FF.literal(ordinate).accept(filterToSQL, Double.class);
+    }
+
     /**
      * 
      * @param filter
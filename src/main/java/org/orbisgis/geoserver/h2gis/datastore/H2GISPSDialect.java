@@ -0,0 +1,314 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.io.WKBWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Map;
+import java.util.Set;
+import org.geotools.factory.Hints;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.PreparedFilterToSQL;
+import org.geotools.jdbc.PreparedStatementSQLDialect;
+import org.geotools.jdbc.SQLDialect;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+
+/**
+ * Prepared statement dialect for H2GIS. Attributes are bound as typed
+ * parameters and geometries as WKB byte arrays, so H2 can reuse the plan of a
+ * statement and never has to parse a WKT literal.
+ *
+ * All the metadata and geometry decoding work is delegated to
+ * {@link H2GISDialect}.
+ */
+public class H2GISPSDialect extends PreparedStatementSQLDialect {
+
+    private final H2GISDialect delegate;
+
+    /**
+     *
+     * @param dataStore
+     * @param delegate
+     */
+    public H2GISPSDialect(JDBCDataStore dataStore, H2GISDialect delegate) {
+        super(dataStore);
+        this.delegate = delegate;
+    }
+
+    /**
+     * The dialect used to encode everything that is not bound as a parameter
+     *
+     * @return
+     */
+    public H2GISDialect getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * The H2GIS dialect of a store, unwrapping the prepared statement one
+     *
+     * @param dataStore an H2GIS data store
+     * @return
+     */
+    public static H2GISDialect getH2GISDialect(JDBCDataStore dataStore) {
+        SQLDialect dialect = dataStore.getSQLDialect();
+        if (dialect instanceof H2GISPSDialect) {
+            return ((H2GISPSDialect) dialect).getDelegate();
+        }
+        return (H2GISDialect) dialect;
+    }
+
+    @Override
+    public void initializeConnection(Connection cx) throws SQLException {
+        delegate.initializeConnection(cx);
+    }
+
+    @Override
+    public boolean includeTable(String schemaName, String tableName,
+            Connection cx) throws SQLException {
+        return delegate.includeTable(schemaName, tableName, cx);
+    }
+
+    @Override
+    public boolean isAggregatedSortSupported(String function) {
+        return delegate.isAggregatedSortSupported(function);
+    }
+
+    @Override
+    public Geometry decodeGeometryValue(GeometryDescriptor descriptor,
+            ResultSet rs, String column, GeometryFactory factory, Connection cx)
+            throws IOException, SQLException {
+        return delegate.decodeGeometryValue(descriptor, rs, column, factory, cx);
+    }
+
+    @Override
+    public void encodeGeometryColumn(GeometryDescriptor gatt, String prefix, int srid,
+            StringBuffer sql) {
+        delegate.encodeGeometryColumn(gatt, prefix, srid, sql);
+    }
+
+    @Override
+    public void encodeGeometryColumn(GeometryDescriptor gatt, String prefix, int srid, Hints hints,
+            StringBuffer sql) {
+        delegate.encodeGeometryColumn(gatt, prefix, srid, hints, sql);
+    }
+
+    @Override
+    public void encodeGeometryColumnSimplified(GeometryDescriptor gatt, String prefix, int srid,
+            StringBuffer sql, Double distance) {
+        delegate.encodeGeometryColumnSimplified(gatt, prefix, srid, sql, distance);
+    }
+
+    @Override
+    public void encodeGeometryEnvelope(String tableName, String geometryColumn,
+            StringBuffer sql) {
+        delegate.encodeGeometryEnvelope(tableName, geometryColumn, sql);
+    }
+
+    @Override
+    public Envelope decodeGeometryEnvelope(ResultSet rs, int column,
+            Connection cx) throws SQLException, IOException {
+        return delegate.decodeGeometryEnvelope(rs, column, cx);
+    }
+
+    @Override
+    public Class<?> getMapping(ResultSet columnMetaData, Connection cx)
+            throws SQLException {
+        return delegate.getMapping(columnMetaData, cx);
+    }
+
+    @Override
+    public Integer getGeometrySRID(String schemaName, String tableName,
+            String columnName, Connection cx) throws SQLException {
+        return delegate.getGeometrySRID(schemaName, tableName, columnName, cx);
+    }
+
+    @Override
+    public int getGeometryDimension(String schemaName, String tableName, String columnName,
+            Connection cx) throws SQLException {
+        return delegate.getGeometryDimension(schemaName, tableName, columnName, cx);
+    }
+
+    @Override
+    public String getSequenceForColumn(String schemaName, String tableName,
+            String columnName, Connection cx) throws SQLException {
+        return delegate.getSequenceForColumn(schemaName, tableName, columnName, cx);
+    }
+
+    @Override
+    public Object getNextSequenceValue(String schemaName, String sequenceName,
+            Connection cx) throws SQLException {
+        return delegate.getNextSequenceValue(schemaName, sequenceName, cx);
+    }
+
+    @Override
+    public Object getLastAutoGeneratedValue(String schemaName, String tableName, String columnName,
+            Connection cx) throws SQLException {
+        return delegate.getLastAutoGeneratedValue(schemaName, tableName, columnName, cx);
+    }
+
+    @Override
+    public void registerClassToSqlMappings(Map<Class<?>, Integer> mappings) {
+        delegate.registerClassToSqlMappings(mappings);
+    }
+
+    @Override
+    public void registerSqlTypeNameToClassMappings(
+            Map<String, Class<?>> mappings) {
+        delegate.registerSqlTypeNameToClassMappings(mappings);
+    }
+
+    @Override
+    public void registerSqlTypeToSqlTypeNameOverrides(
+            Map<Integer, String> overrides) {
+        delegate.registerSqlTypeToSqlTypeNameOverrides(overrides);
+    }
+
+    @Override
+    public String getGeometryTypeName(Integer type) {
+        return delegate.getGeometryTypeName(type);
+    }
+
+    @Override
+    public void encodePrimaryKey(String column, StringBuffer sql) {
+        delegate.encodePrimaryKey(column, sql);
+    }
+
+    @Override
+    public void postCreateTable(String schemaName,
+            SimpleFeatureType featureType, Connection cx) throws SQLException {
+        delegate.postCreateTable(schemaName, featureType, cx);
+    }
+
+    @Override
+    public void postDropTable(String schemaName, SimpleFeatureType featureType, Connection cx)
+            throws SQLException {
+        delegate.postDropTable(schemaName, featureType, cx);
+    }
+
+    @Override
+    public void postCreateFeatureType(SimpleFeatureType featureType, DatabaseMetaData metadata,
+            String schemaName, Connection cx) throws SQLException {
+        delegate.postCreateFeatureType(featureType, metadata, schemaName, cx);
+    }
+
+    @Override
+    public void onSelect(Statement select, Connection cx, SimpleFeatureType featureType)
+            throws SQLException {
+        delegate.onSelect(select, cx, featureType);
+    }
+
+    @Override
+    public void onInsert(Statement insert, Connection cx, SimpleFeatureType featureType)
+            throws SQLException {
+        delegate.onInsert(insert, cx, featureType);
+    }
+
+    @Override
+    public void onUpdate(Statement update, Connection cx, SimpleFeatureType featureType)
+            throws SQLException {
+        delegate.onUpdate(update, cx, featureType);
+    }
+
+    @Override
+    public void onDelete(Statement delete, Connection cx, SimpleFeatureType featureType)
+            throws SQLException {
+        delegate.onDelete(delete, cx, featureType);
+    }
+
+    @Override
+    public boolean isLimitOffsetSupported() {
+        return delegate.isLimitOffsetSupported();
+    }
+
+    @Override
+    public void applyLimitOffset(StringBuffer sql, int limit, int offset) {
+        delegate.applyLimitOffset(sql, limit, offset);
+    }
+
+    @Override
+    public int getDefaultVarcharSize() {
+        return delegate.getDefaultVarcharSize();
+    }
+
+    @Override
+    public String[] getDesiredTablesType() {
+        return delegate.getDesiredTablesType();
+    }
+
+    @Override
+    protected void addSupportedHints(Set<Hints.Key> hints) {
+        delegate.addSupportedHints(hints);
+    }
+
+    @Override
+    public void prepareGeometryValue(Geometry g, int dimension, int srid, Class binding,
+            StringBuffer sql) {
+        if (g != null) {
+            if (srid > 0) {
+                sql.append("ST_GeomFromWKB(?, ").append(srid).append(")");
+            } else {
+                sql.append("ST_GeomFromWKB(?)");
+            }
+        } else {
+            sql.append("?");
+        }
+    }
+
+    @Override
+    public void setGeometryValue(Geometry g, int dimension, int srid, Class binding,
+            PreparedStatement ps, int column) throws SQLException {
+        if (g != null) {
+            if (g instanceof LinearRing) {
+                //h2gis does not handle linear rings, convert to just a line string
+                g = g.getFactory().createLineString(((LinearRing) g).getCoordinateSequence());
+            }
+            byte[] bytes = new WKBWriter(dimension == 3 ? 3 : 2).write(g);
+            ps.setBytes(column, bytes);
+        } else {
+            ps.setNull(column, Types.BINARY);
+        }
+    }
+
+    @Override
+    public PreparedFilterToSQL createPreparedFilterToSQL() {
+        H2GISPSFilterToSQL sql = new H2GISPSFilterToSQL(this);
+        sql.setFunctionEncodingEnabled(delegate.isFunctionEncodingEnabled());
+        return sql;
+    }
+}
@@ -0,0 +1,611 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.data.jdbc.FilterToSQL;
+import org.geotools.data.jdbc.FilterToSQLException;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCFeatureSource;
+import org.geotools.jdbc.JDBCFeatureStore;
+import org.geotools.jdbc.PrimaryKey;
+import org.geotools.jdbc.PrimaryKeyColumn;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+import org.orbisgis.geoserver.h2gis.datastore.jmx.ConnectionPoolMonitor;
+
+/**
+ * Reads the features of a layer with several connections at once.
+ *
+ * The range of the primary key is split in partitions, each one is read by
+ * its own thread on its own connection of the pool. The features are handed
+ * over to the reader as they come, or merged back in order when the query is
+ * sorted. The partitions are read in separate transactions, a table modified
+ * during the read may not be seen as of a single instant.
+ *
+ * The layers without a single integer primary key, the filters that can not
+ * be fully encoded in SQL, the queries with a start index or sorted on
+ * something else than their attributes are read by the regular feature
+ * reader, as well as the queries that reproject the features.
+ *
+ * This is a standalone utility, the feature sources of the data store do not
+ * use it. It always reads at {@link Transaction#AUTO_COMMIT} since every
+ * partition needs its own connection, the changes not committed by a
+ * transaction are not seen.
+ */
+public class H2GISParallelReader {
+
+    private static final Logger LOGGER = Logging.getLogger(H2GISParallelReader.class);
+
+    /**
+     * Number of features waiting to be read, for each partition
+     */
+    private static final int QUEUE_SIZE = 1000;
+
+    private static final Object END = new Object();
+
+    private final JDBCDataStore dataStore;
+    private final String typeName;
+    private int partitions = Runtime.getRuntime().availableProcessors();
+
+    /**
+     *
+     * @param dataStore an H2GIS data store
+     * @param typeName the table to read
+     */
+    public H2GISParallelReader(JDBCDataStore dataStore, String typeName) {
+        this.dataStore = dataStore;
+        this.typeName = typeName;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Number of partitions read at once, each one uses a connection of the
+     * pool. Defaults to the number of processors, a read never uses more
+     * partitions than the free connections of the pool.
+     *
+     * @param partitions
+     */
+    public void setPartitions(int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("The number of partitions must be greater than 0");
+        }
+        this.partitions = partitions;
+    }
+
+    /**
+     * Read the features of the layer
+     *
+     * @param query
+     * @return
+     * @throws IOException
+     */
+    public FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(Query query) throws IOException {
+        Query layerQuery = new Query(query);
+        layerQuery.setTypeName(typeName);
+        SimpleFeatureSource featureSource = dataStore.getFeatureSource(typeName);
+        SimpleFeatureType featureType = featureSource.getSchema();
+        PrimaryKey primaryKey = getPrimaryKey(featureSource);
+        Filter filter = layerQuery.getFilter() != null ? layerQuery.getFilter() : Filter.INCLUDE;
+        H2GISDialect dialect = H2GISPSDialect.getH2GISDialect(dataStore);
+        FilterToSQL toSQL = dialect.createFilterToSQL();
+        toSQL.setFeatureType(featureType);
+        toSQL.setSqlNameEscape(dialect.getNameEscape());
+        toSQL.setInline(true);
+        if (primaryKey != null) {
+            toSQL.setPrimaryKey(primaryKey);
+        }
+        SimpleFeatureType resultType = layerQuery.getPropertyNames() == null ? featureType
+                : SimpleFeatureTypeBuilder.retype(featureType, layerQuery.getPropertyNames());
+        String keyColumn = getKeyColumn(primaryKey);
+        int readers = getReaders();
+        if (readers < 2 || keyColumn == null || layerQuery.getStartIndex() != null
+                || layerQuery.getCoordinateSystem() != null
+                || layerQuery.getCoordinateSystemReproject() != null
+                || !toSQL.getCapabilities().fullySupports(filter)
+                || !isSortSupported(layerQuery.getSortBy(), resultType)) {
+            LOGGER.log(Level.FINE, "Sequential read of {0}", typeName);
+            return dataStore.getFeatureReader(layerQuery, Transaction.AUTO_COMMIT);
+        }
+        long[] range = getKeyRange(keyColumn);
+        if (range == null) {
+            return dataStore.getFeatureReader(layerQuery, Transaction.AUTO_COMMIT);
+        }
+        String sql;
+        try {
+            sql = selectSQL(featureType, resultType, keyColumn, toSQL, filter, layerQuery);
+        } catch (FilterToSQLException e) {
+            throw new IOException("Cannot encode the filter " + filter, e);
+        }
+        LOGGER.fine(sql);
+        return new ParallelReader(resultType, sql, range, layerQuery, readers);
+    }
+
+    /**
+     * @return the number of partitions to read, no more than the free
+     * connections of the pool so that every partition can start
+     */
+    private int getReaders() {
+        if (dataStore.getDataSource() instanceof H2GISDataSource) {
+            ConnectionPoolMonitor pool = ((H2GISDataSource) dataStore.getDataSource()).getMonitor();
+            if (pool.getMaxActive() > 0) {
+                return Math.min(partitions, pool.getMaxActive() - pool.getNumActive());
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * The query of a partition, its key range is bound as the two first
+     * parameters
+     */
+    private String selectSQL(SimpleFeatureType featureType, SimpleFeatureType resultType, String keyColumn,
+            FilterToSQL toSQL, Filter filter, Query query) throws FilterToSQLException {
+        H2GISDialect dialect = H2GISPSDialect.getH2GISDialect(dataStore);
+        StringBuffer sql = new StringBuffer("SELECT ");
+        dialect.encodeColumnName(null, keyColumn, sql);
+        for (AttributeDescriptor att : resultType.getAttributeDescriptors()) {
+            sql.append(", ");
+            if (att instanceof GeometryDescriptor) {
+                GeometryDescriptor gd = (GeometryDescriptor) featureType.getDescriptor(att.getLocalName());
+                Integer srid = dialect.getNativeSRID(featureType, gd);
+                dialect.encodeGeometryColumn(gd, null, srid != null ? srid : 0, query.getHints(), sql);
+                sql.append(" AS ");
+            }
+            dialect.encodeColumnName(null, att.getLocalName(), sql);
+        }
+        sql.append(" FROM ");
+        if (dataStore.getDatabaseSchema() != null) {
+            dialect.encodeSchemaName(dataStore.getDatabaseSchema(), sql);
+            sql.append(".");
+        }
+        dialect.encodeTableName(typeName, sql);
+        sql.append(" WHERE ");
+        dialect.encodeColumnName(null, keyColumn, sql);
+        sql.append(" >= ? AND ");
+        dialect.encodeColumnName(null, keyColumn, sql);
+        sql.append(" <= ?");
+        if (filter != Filter.INCLUDE) {
+            sql.append(" AND (").append(toSQL.encodeToString(filter)).append(")");
+        }
+        SortBy[] sortBy = query.getSortBy();
+        if (sortBy != null && sortBy.length > 0) {
+            sql.append(" ORDER BY ");
+            for (int i = 0; i < sortBy.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                dialect.encodeColumnName(null, sortBy[i].getPropertyName().getPropertyName(), sql);
+                sql.append(sortBy[i].getSortOrder() == SortOrder.DESCENDING ? " DESC" : " ASC");
+            }
+        }
+        return sql.toString();
+    }
+
+    /**
+     * @return the first and the last keys, null if the table is empty
+     */
+    private long[] getKeyRange(String keyColumn) throws IOException {
+        H2GISDialect dialect = H2GISPSDialect.getH2GISDialect(dataStore);
+        StringBuffer sql = new StringBuffer("SELECT MIN(");
+        dialect.encodeColumnName(null, keyColumn, sql);
+        sql.append("), MAX(");
+        dialect.encodeColumnName(null, keyColumn, sql);
+        sql.append(") FROM ");
+        if (dataStore.getDatabaseSchema() != null) {
+            dialect.encodeSchemaName(dataStore.getDatabaseSchema(), sql);
+            sql.append(".");
+        }
+        dialect.encodeTableName(typeName, sql);
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        try {
+            Statement st = cx.createStatement();
+            try {
+                ResultSet rs = st.executeQuery(sql.toString());
+                try {
+                    rs.next();
+                    long min = rs.getLong(1);
+                    if (rs.wasNull()) {
+                        return null;
+                    }
+                    return new long[]{min, rs.getLong(2)};
+                } finally {
+                    dataStore.closeSafe(rs);
+                }
+            } finally {
+                dataStore.closeSafe(st);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Cannot read the key range of " + typeName, e);
+        } finally {
+            dataStore.closeSafe(cx);
+        }
+    }
+
+    /**
+     * The sort must be on attributes read by the query, so that the
+     * partitions can be merged
+     */
+    private static boolean isSortSupported(SortBy[] sortBy, SimpleFeatureType resultType) {
+        if (sortBy == null) {
+            return true;
+        }
+        for (SortBy sort : sortBy) {
+            if (sort.getPropertyName() == null) {
+                // natural order
+                return false;
+            }
+            AttributeDescriptor att = resultType.getDescriptor(sort.getPropertyName().getPropertyName());
+            if (att == null || att instanceof GeometryDescriptor
+                    || !Comparable.class.isAssignableFrom(att.getType().getBinding())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the single integer key column, or null
+     */
+    private static String getKeyColumn(PrimaryKey primaryKey) {
+        if (primaryKey == null || primaryKey.getColumns().size() != 1) {
+            return null;
+        }
+        PrimaryKeyColumn column = primaryKey.getColumns().get(0);
+        Class<?> type = column.getType();
+        if (type == Integer.class || type == Long.class || type == Short.class) {
+            return column.getName();
+        }
+        return null;
+    }
+
+    private static PrimaryKey getPrimaryKey(SimpleFeatureSource featureSource) {
+        if (featureSource instanceof JDBCFeatureStore) {
+            return ((JDBCFeatureStore) featureSource).getPrimaryKey();
+        } else if (featureSource instanceof JDBCFeatureSource) {
+            return ((JDBCFeatureSource) featureSource).getPrimaryKey();
+        }
+        return null;
+    }
+
+    /**
+     * Orders the features as the sort of the query, the nulls first
+     */
+    private static final class FeatureComparator implements Comparator<SimpleFeature> {
+
+        private final SortBy[] sortBy;
+
+        FeatureComparator(SortBy[] sortBy) {
+            this.sortBy = sortBy;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(SimpleFeature f1, SimpleFeature f2) {
+            for (SortBy sort : sortBy) {
+                String name = sort.getPropertyName().getPropertyName();
+                Comparable<Object> v1 = (Comparable<Object>) f1.getAttribute(name);
+                Object v2 = f2.getAttribute(name);
+                int result;
+                if (v1 == null) {
+                    result = v2 == null ? 0 : -1;
+                } else if (v2 == null) {
+                    result = 1;
+                } else {
+                    result = v1.compareTo(v2);
+                }
+                if (result != 0) {
+                    return sort.getSortOrder() == SortOrder.DESCENDING ? -result : result;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * The failure of a partition
+     */
+    private static final class Failure {
+
+        final Exception exception;
+
+        Failure(Exception exception) {
+            this.exception = exception;
+        }
+    }
+
+    /**
+     * The head feature of a sorted partition
+     */
+    private static final class Head {
+
+        final SimpleFeature feature;
+        final BlockingQueue<Object> queue;
+
+        Head(SimpleFeature feature, BlockingQueue<Object> queue) {
+            this.feature = feature;
+            this.queue = queue;
+        }
+    }
+
+    /**
+     * Starts the partitions and hands over their features
+     */
+    private final class ParallelReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+        private final SimpleFeatureType featureType;
+        private final String sql;
+        private final int maxFeatures;
+        private final ExecutorService executor;
+        private final List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>();
+        private final PriorityQueue<Head> heads;
+        private volatile boolean closed = false;
+        private boolean started = false;
+        private int runningPartitions;
+        private int count = 0;
+        private SimpleFeature next;
+
+        ParallelReader(SimpleFeatureType featureType, String sql, long[] range, Query query,
+                int partitions) {
+            this.featureType = featureType;
+            this.sql = sql;
+            this.maxFeatures = query.getMaxFeatures();
+            SortBy[] sortBy = query.getSortBy();
+            boolean sorted = sortBy != null && sortBy.length > 0;
+            final FeatureComparator comparator = sorted ? new FeatureComparator(sortBy) : null;
+            heads = sorted ? new PriorityQueue<Head>(partitions, new Comparator<Head>() {
+                @Override
+                public int compare(Head h1, Head h2) {
+                    return comparator.compare(h1.feature, h2.feature);
+                }
+            }) : null;
+            executor = Executors.newFixedThreadPool(partitions, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "H2GIS parallel read of " + typeName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // unsorted partitions share a single queue
+            BlockingQueue<Object> shared = sorted ? null : new ArrayBlockingQueue<Object>(QUEUE_SIZE * partitions);
+            // the width of the key range may not fit in a long
+            BigInteger last = BigInteger.valueOf(range[1]);
+            BigInteger keys = last.subtract(BigInteger.valueOf(range[0])).add(BigInteger.ONE);
+            BigInteger step = keys.add(BigInteger.valueOf(partitions - 1)).divide(BigInteger.valueOf(partitions));
+            for (BigInteger min = BigInteger.valueOf(range[0]); min.compareTo(last) <= 0;
+                    min = min.add(step)) {
+                BlockingQueue<Object> queue = sorted ? new ArrayBlockingQueue<Object>(QUEUE_SIZE) : shared;
+                if (sorted || queues.isEmpty()) {
+                    queues.add(queue);
+                }
+                final long partitionMin = min.longValue();
+                final long partitionMax = min.add(step).subtract(BigInteger.ONE).min(last).longValue();
+                final BlockingQueue<Object> partitionQueue = queue;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        read(partitionMin, partitionMax, partitionQueue);
+                    }
+                });
+                runningPartitions++;
+            }
+            executor.shutdown();
+        }
+
+        /**
+         * Read a partition into its queue
+         */
+        private void read(long min, long max, BlockingQueue<Object> queue) {
+            Connection cx = null;
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+                ps = cx.prepareStatement(sql);
+                ps.setLong(1, min);
+                ps.setLong(2, max);
+                ps.setFetchSize(dataStore.getFetchSize());
+                rs = ps.executeQuery();
+                SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
+                while (!closed && rs.next()) {
+                    if (!put(queue, build(rs, builder, cx))) {
+                        return;
+                    }
+                }
+                put(queue, END);
+            } catch (Exception e) {
+                put(queue, new Failure(e));
+            } finally {
+                dataStore.closeSafe(rs);
+                dataStore.closeSafe(ps);
+                dataStore.closeSafe(cx);
+            }
+        }
+
+        private SimpleFeature build(ResultSet rs, SimpleFeatureBuilder builder, Connection cx)
+                throws SQLException, IOException {
+            H2GISDialect dialect = H2GISPSDialect.getH2GISDialect(dataStore);
+            Object key = rs.getObject(1);
+            List<AttributeDescriptor> attributes = featureType.getAttributeDescriptors();
+            for (int i = 0; i < attributes.size(); i++) {
+                AttributeDescriptor att = attributes.get(i);
+                Object value;
+                if (att instanceof GeometryDescriptor) {
+                    value = dialect.decodeGeometryValue((GeometryDescriptor) att, rs, att.getLocalName(),
+                            dataStore.getGeometryFactory(), cx);
+                } else {
+                    value = rs.getObject(i + 2);
+                    if (value != null && !att.getType().getBinding().isInstance(value)) {
+                        Object converted = Converters.convert(value, att.getType().getBinding());
+                        if (converted != null) {
+                            value = converted;
+                        }
+                    }
+                }
+                builder.set(i, value);
+            }
+            return builder.buildFeature(typeName + "." + key);
+        }
+
+        /**
+         * @return false if the reader has been closed
+         */
+        private boolean put(BlockingQueue<Object> queue, Object item) {
+            try {
+                while (!closed) {
+                    if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        /**
+         * @return the next feature of a partition, null at its end
+         */
+        private SimpleFeature take(BlockingQueue<Object> queue) throws IOException {
+            Object item = null;
+            try {
+                while (item == null) {
+                    if (closed) {
+                        throw new IOException("The reader of " + typeName + " is closed");
+                    }
+                    item = queue.poll(100, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + typeName, e);
+            }
+            if (item == END) {
+                runningPartitions--;
+                return null;
+            } else if (item instanceof Failure) {
+                throw new IOException("Failed to read " + typeName, ((Failure) item).exception);
+            }
+            return (SimpleFeature) item;
+        }
+
+        private SimpleFeature read() throws IOException {
+            if (heads == null) {
+                BlockingQueue<Object> queue = queues.get(0);
+                while (runningPartitions > 0) {
+                    SimpleFeature feature = take(queue);
+                    if (feature != null) {
+                        return feature;
+                    }
+                }
+                return null;
+            }
+            if (!started) {
+                started = true;
+                for (BlockingQueue<Object> queue : queues) {
+                    SimpleFeature feature = take(queue);
+                    if (feature != null) {
+                        heads.add(new Head(feature, queue));
+                    }
+                }
+            }
+            Head head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+            SimpleFeature feature = take(head.queue);
+            if (feature != null) {
+                heads.add(new Head(feature, head.queue));
+            }
+            return head.feature;
+        }
+
+        @Override
+        public SimpleFeatureType getFeatureType() {
+            return featureType;
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            if (next == null && !closed && count < maxFeatures) {
+                next = read();
+            }
+            return next != null;
+        }
+
+        @Override
+        public SimpleFeature next() throws IOException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SimpleFeature feature = next;
+            next = null;
+            count++;
+            return feature;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            executor.shutdownNow();
+        }
+    }
+}
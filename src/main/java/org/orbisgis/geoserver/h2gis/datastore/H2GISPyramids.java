@@ -0,0 +1,390 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.data.Transaction;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Generalized copies of the geometries of a layer, at several tolerances.
+ *
+ * Each level is a shadow table {table}_PYRAMID_{n} holding the primary key
+ * and the geometry simplified with ST_SimplifyPreserveTopology. The levels
+ * are listed in the H2GIS_PYRAMIDS table and kept up to date by a
+ * {@link PyramidTrigger} on the layer table. When a query carries a
+ * simplification distance, the dialect reads the geometries from the
+ * coarsest level whose tolerance does not exceed the distance.
+ *
+ * The level geometry is joined to each row of the layer table, which is still
+ * read and filtered as usual: a pyramid shrinks the geometries transferred
+ * and decoded, not the reads from storage.
+ *
+ * Only the default geometry of a table with a single column primary key can
+ * have a pyramid.
+ */
+public class H2GISPyramids {
+
+    private static final Logger LOGGER = Logging.getLogger(H2GISPyramids.class);
+
+    /**
+     * The registry of the pyramid levels
+     */
+    public static final String REGISTRY = "H2GIS_PYRAMIDS";
+
+    private final JDBCDataStore dataStore;
+
+    /**
+     *
+     * @param dataStore an H2GIS data store
+     */
+    public H2GISPyramids(JDBCDataStore dataStore) {
+        this.dataStore = dataStore;
+    }
+
+    /**
+     * Build the pyramid of a layer, replacing the previous one
+     *
+     * @param typeName the layer table
+     * @param tolerances the simplification tolerance of each level
+     * @throws IOException
+     */
+    public void build(String typeName, double... tolerances) throws IOException {
+        SimpleFeatureType featureType = dataStore.getSchema(typeName);
+        if (featureType.getGeometryDescriptor() == null) {
+            throw new IOException(typeName + " has no geometry");
+        }
+        String column = featureType.getGeometryDescriptor().getLocalName();
+        double[] sorted = tolerances.clone();
+        Arrays.sort(sorted);
+        drop(typeName);
+        String schema = getSchemaName();
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        List<String> levelTables = new ArrayList<String>();
+        try {
+            String keyColumn = getKeyColumn(schema, typeName, cx);
+            Statement st = cx.createStatement();
+            try {
+                st.execute("CREATE TABLE IF NOT EXISTS " + H2GISDialect.quote(schema) + "." + REGISTRY
+                        + " (TABLE_SCHEMA VARCHAR, TABLE_NAME VARCHAR, COLUMN_NAME VARCHAR,"
+                        + " KEY_COLUMN VARCHAR, LEVEL_TABLE VARCHAR, TOLERANCE DOUBLE)");
+                // the levels and the trigger are created empty, so that the rows
+                // written while the levels are filled are copied by the trigger
+                PreparedStatement register = cx.prepareStatement("INSERT INTO " + H2GISDialect.quote(schema)
+                        + "." + REGISTRY + " VALUES (?, ?, ?, ?, ?, ?)");
+                try {
+                    for (int i = 0; i < sorted.length; i++) {
+                        String levelTable = typeName + "_PYRAMID_" + i;
+                        String sql = "CREATE TABLE " + H2GISDialect.quote(schema, levelTable) + " AS SELECT "
+                                + H2GISDialect.quote(keyColumn) + ", ST_SimplifyPreserveTopology("
+                                + H2GISDialect.quote(column) + ", " + sorted[i] + ") " + H2GISDialect.quote(column)
+                                + " FROM " + H2GISDialect.quote(schema, typeName) + " WHERE 1 = 0";
+                        LOGGER.fine(sql);
+                        st.execute(sql);
+                        levelTables.add(levelTable);
+                        st.execute("ALTER TABLE " + H2GISDialect.quote(schema, levelTable) + " ADD PRIMARY KEY ("
+                                + H2GISDialect.quote(keyColumn) + ")");
+                        register.setString(1, schema);
+                        register.setString(2, typeName);
+                        register.setString(3, column);
+                        register.setString(4, keyColumn);
+                        register.setString(5, levelTable);
+                        register.setDouble(6, sorted[i]);
+                        register.executeUpdate();
+                    }
+                } finally {
+                    dataStore.closeSafe(register);
+                }
+                st.execute("CREATE TRIGGER " + H2GISDialect.quote(schema, getTriggerName(typeName))
+                        + " AFTER INSERT, UPDATE, DELETE ON " + H2GISDialect.quote(schema, typeName)
+                        + " FOR EACH ROW CALL \"" + PyramidTrigger.class.getName() + "\"");
+                // merged on the key, the rows already copied by the trigger are kept
+                for (int i = 0; i < sorted.length; i++) {
+                    String sql = "MERGE INTO " + H2GISDialect.quote(schema, levelTables.get(i)) + " KEY ("
+                            + H2GISDialect.quote(keyColumn) + ") SELECT " + H2GISDialect.quote(keyColumn)
+                            + ", ST_SimplifyPreserveTopology(" + H2GISDialect.quote(column) + ", " + sorted[i]
+                            + ") FROM " + H2GISDialect.quote(schema, typeName);
+                    LOGGER.fine(sql);
+                    st.execute(sql);
+                }
+            } finally {
+                dataStore.closeSafe(st);
+            }
+        } catch (SQLException e) {
+            dropPartialLevels(cx, schema, typeName, levelTables);
+            throw new IOException("Failed to build the pyramid of " + typeName, e);
+        } finally {
+            dataStore.closeSafe(cx);
+        }
+        refresh(typeName);
+    }
+
+    /**
+     * Remove what a failed build left, so that the dialect never reads an
+     * incomplete pyramid
+     */
+    private void dropPartialLevels(Connection cx, String schema, String typeName, List<String> levelTables) {
+        try {
+            dropLevels(cx, schema, typeName);
+            Statement st = cx.createStatement();
+            try {
+                for (String levelTable : levelTables) {
+                    st.execute("DROP TABLE IF EXISTS " + H2GISDialect.quote(schema, levelTable));
+                }
+            } finally {
+                dataStore.closeSafe(st);
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to drop the partial pyramid of " + typeName, e);
+        }
+    }
+
+    /**
+     * Drop the pyramid of a layer, if any
+     *
+     * @param typeName
+     * @throws IOException
+     */
+    public void drop(String typeName) throws IOException {
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        try {
+            if (!dropLevels(cx, getSchemaName(), typeName)) {
+                return;
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to drop the pyramid of " + typeName, e);
+        } finally {
+            dataStore.closeSafe(cx);
+        }
+        refresh(typeName);
+    }
+
+    /**
+     * Drop the trigger, the level tables and the registry entries of a layer
+     *
+     * @param cx
+     * @param schema
+     * @param typeName
+     * @return false if the layer had no pyramid
+     * @throws SQLException
+     */
+    static boolean dropLevels(Connection cx, String schema, String typeName) throws SQLException {
+        List<PyramidLevel> levels = getLevels(cx, schema, typeName);
+        if (levels.isEmpty()) {
+            return false;
+        }
+        Statement st = cx.createStatement();
+        try {
+            st.execute("DROP TRIGGER IF EXISTS " + H2GISDialect.quote(schema, getTriggerName(typeName)));
+            for (PyramidLevel level : levels) {
+                st.execute("DROP TABLE IF EXISTS " + H2GISDialect.quote(schema, level.getLevelTable()));
+            }
+        } finally {
+            st.close();
+        }
+        PreparedStatement ps = cx.prepareStatement("DELETE FROM " + H2GISDialect.quote(schema) + "." + REGISTRY
+                + " WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ?");
+        try {
+            ps.setString(1, schema);
+            ps.setString(2, typeName);
+            ps.executeUpdate();
+        } finally {
+            ps.close();
+        }
+        return true;
+    }
+
+    /**
+     * Forget the cached feature type and geometry metadata of the layer, the
+     * levels are read again when the feature type is built
+     */
+    private void refresh(String typeName) throws IOException {
+        H2GISPSDialect.getH2GISDialect(dataStore).resetGeometryColumns(dataStore.getDatabaseSchema());
+        dataStore.getFeatureSource(typeName).getState().flush();
+    }
+
+    private String getSchemaName() {
+        return dataStore.getDatabaseSchema() != null ? dataStore.getDatabaseSchema() : "PUBLIC";
+    }
+
+    private String getKeyColumn(String schema, String typeName, Connection cx) throws SQLException,
+            IOException {
+        List<String> columns = new ArrayList<String>();
+        ResultSet rs = cx.getMetaData().getPrimaryKeys(null, schema, typeName);
+        try {
+            while (rs.next()) {
+                columns.add(rs.getString("COLUMN_NAME"));
+            }
+        } finally {
+            dataStore.closeSafe(rs);
+        }
+        if (columns.size() != 1) {
+            throw new IOException("A pyramid needs a single column primary key on " + typeName);
+        }
+        return columns.get(0);
+    }
+
+    static String getTriggerName(String typeName) {
+        return typeName + "_PYRAMID";
+    }
+
+    /**
+     * Check if a table is a pyramid level listed in the registry, or the
+     * registry itself
+     *
+     * @param cx
+     * @param schema
+     * @param tableName
+     * @return
+     * @throws SQLException
+     */
+    static boolean isPyramidTable(Connection cx, String schema, String tableName) throws SQLException {
+        if (REGISTRY.equalsIgnoreCase(tableName)) {
+            return true;
+        } else if (!hasRegistry(cx, schema)) {
+            return false;
+        }
+        PreparedStatement ps = cx.prepareStatement("SELECT 1 FROM " + H2GISDialect.quote(schema) + "." + REGISTRY
+                + " WHERE TABLE_SCHEMA = ? AND LEVEL_TABLE = ?");
+        try {
+            ps.setString(1, schema);
+            ps.setString(2, tableName);
+            ResultSet rs = ps.executeQuery();
+            try {
+                return rs.next();
+            } finally {
+                rs.close();
+            }
+        } finally {
+            ps.close();
+        }
+    }
+
+    private static boolean hasRegistry(Connection cx, String schema) throws SQLException {
+        ResultSet tables = cx.getMetaData().getTables(null, schema, REGISTRY, null);
+        try {
+            return tables.next();
+        } finally {
+            tables.close();
+        }
+    }
+
+    /**
+     * Read the levels of a layer
+     *
+     * @param cx
+     * @param schema
+     * @param typeName
+     * @return the levels sorted by increasing tolerance, empty if the layer
+     * has no pyramid
+     * @throws SQLException
+     */
+    static List<PyramidLevel> getLevels(Connection cx, String schema, String typeName) throws SQLException {
+        List<PyramidLevel> levels = new ArrayList<PyramidLevel>();
+        if (!hasRegistry(cx, schema)) {
+            return levels;
+        }
+        PreparedStatement ps = cx.prepareStatement("SELECT COLUMN_NAME, KEY_COLUMN, LEVEL_TABLE, TOLERANCE"
+                + " FROM " + H2GISDialect.quote(schema) + "." + REGISTRY
+                + " WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ?"
+                + " ORDER BY TOLERANCE");
+        try {
+            ps.setString(1, schema);
+            ps.setString(2, typeName);
+            ResultSet rs = ps.executeQuery();
+            try {
+                while (rs.next()) {
+                    levels.add(new PyramidLevel(schema, typeName, rs.getString(1), rs.getString(2),
+                            rs.getString(3), rs.getDouble(4)));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            ps.close();
+        }
+        return levels;
+    }
+
+    /**
+     * A level of a pyramid
+     */
+    public static final class PyramidLevel {
+
+        private final String schema;
+        private final String table;
+        private final String column;
+        private final String keyColumn;
+        private final String levelTable;
+        private final double tolerance;
+
+        PyramidLevel(String schema, String table, String column, String keyColumn, String levelTable,
+                double tolerance) {
+            this.schema = schema;
+            this.table = table;
+            this.column = column;
+            this.keyColumn = keyColumn;
+            this.levelTable = levelTable;
+            this.tolerance = tolerance;
+        }
+
+        public String getSchema() {
+            return schema;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public String getKeyColumn() {
+            return keyColumn;
+        }
+
+        public String getLevelTable() {
+            return levelTable;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+    }
+}
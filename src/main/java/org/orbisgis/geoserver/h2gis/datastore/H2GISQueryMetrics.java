@@ -0,0 +1,230 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.ObjectName;
+import org.orbisgis.geoserver.h2gis.datastore.jmx.LayerMetrics;
+import org.orbisgis.geoserver.h2gis.datastore.jmx.MBeans;
+
+/**
+ * Measures the queries of each layer of a store.
+ *
+ * The connections of the store are wrapped. The statements tagged by the
+ * dialect with their feature type are timed: a query from its execution to
+ * the closing of its result, the time spent by H2 executing it and the rows
+ * read, a write for each execution. The dialect reports the geometry bytes
+ * it decodes and the time spent decoding them.
+ *
+ * The metrics of each layer are published as a LayerMetrics MBean.
+ */
+public class H2GISQueryMetrics {
+
+    private final String name;
+    private final ConcurrentMap<String, LayerMetrics> layers = new ConcurrentHashMap<String, LayerMetrics>();
+    private final List<ObjectName> objectNames = new ArrayList<ObjectName>();
+
+    /**
+     *
+     * @param name name of the store used to publish the metrics, null to not
+     * publish them
+     */
+    public H2GISQueryMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * The metrics of a layer, created on its first query
+     *
+     * @param typeName
+     * @return
+     */
+    public LayerMetrics getLayerMetrics(String typeName) {
+        LayerMetrics metrics = layers.get(typeName);
+        if (metrics == null) {
+            metrics = new LayerMetrics();
+            LayerMetrics previous = layers.putIfAbsent(typeName, metrics);
+            if (previous != null) {
+                return previous;
+            }
+            if (name != null) {
+                ObjectName objectName = MBeans.register(metrics, "LayerMetrics", name + "/" + typeName);
+                synchronized (objectNames) {
+                    objectNames.add(objectName);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Wrap a connection of the store so that its queries are measured
+     *
+     * @param cx
+     * @return
+     */
+    public Connection wrap(Connection cx) {
+        return JDBCProxies.wrap(Connection.class, new ConnectionHandler(cx));
+    }
+
+    /**
+     * Remove the published metrics
+     */
+    public void close() {
+        synchronized (objectNames) {
+            for (ObjectName objectName : objectNames) {
+                MBeans.unregister(objectName);
+            }
+            objectNames.clear();
+        }
+    }
+
+    /**
+     * Tag a statement with the feature type it is about to query
+     *
+     * @param st a statement of the store
+     * @param typeName
+     */
+    static void selecting(Statement st, String typeName) {
+        StatementHandler handler = JDBCProxies.getHandler(st, StatementHandler.class);
+        if (handler != null) {
+            handler.metrics = handler.connectionHandler.getLayerMetrics(typeName);
+        }
+    }
+
+    /**
+     * Tag a statement with the feature type it is about to modify
+     *
+     * @param st a statement of the store
+     * @param typeName
+     */
+    static void modifying(Statement st, String typeName) {
+        StatementHandler handler = JDBCProxies.getHandler(st, StatementHandler.class);
+        if (handler != null) {
+            handler.metrics = handler.connectionHandler.getLayerMetrics(typeName);
+            handler.write = true;
+        }
+    }
+
+    /**
+     * @param rs a result read by the dialect
+     * @return the metrics of the layer read or null if the result is not
+     * measured
+     */
+    static LayerMetrics getLayerMetrics(ResultSet rs) {
+        ResultSetHandler handler = JDBCProxies.getHandler(rs, ResultSetHandler.class);
+        return handler != null ? handler.metrics : null;
+    }
+
+    private final class ConnectionHandler extends JDBCProxies.AbstractConnectionHandler {
+
+        ConnectionHandler(Connection target) {
+            super(target);
+        }
+
+        LayerMetrics getLayerMetrics(String typeName) {
+            return H2GISQueryMetrics.this.getLayerMetrics(typeName);
+        }
+
+        @Override
+        JDBCProxies.Handler createStatementHandler(Statement st, String sql, Connection connection) {
+            return new StatementHandler(st, sql, this, connection);
+        }
+    }
+
+    private static final class StatementHandler extends JDBCProxies.AbstractStatementHandler {
+
+        private final ConnectionHandler connectionHandler;
+        LayerMetrics metrics;
+        boolean write;
+
+        StatementHandler(Statement target, String sql, ConnectionHandler connectionHandler,
+                Connection connection) {
+            super(target, sql, connection);
+            this.connectionHandler = connectionHandler;
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            if (metrics == null || !method.getName().startsWith("execute")) {
+                return super.handle(proxy, method, args);
+            }
+            long start = System.nanoTime();
+            Object result = JDBCProxies.invoke(target, method, args);
+            if (write) {
+                metrics.write(System.nanoTime() - start);
+            } else if (result instanceof ResultSet) {
+                return JDBCProxies.wrap(ResultSet.class, new ResultSetHandler((ResultSet) result,
+                        (Statement) proxy, metrics, start, System.nanoTime() - start));
+            }
+            return result;
+        }
+    }
+
+    private static final class ResultSetHandler extends JDBCProxies.AbstractResultSetHandler {
+
+        final LayerMetrics metrics;
+        private final long start;
+        private final long sqlNanos;
+        private long rows = 0;
+        private boolean closed = false;
+
+        ResultSetHandler(ResultSet target, Statement statement, LayerMetrics metrics, long start,
+                long sqlNanos) {
+            super(target, statement);
+            this.metrics = metrics;
+            this.start = start;
+            this.sqlNanos = sqlNanos;
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("next")) {
+                boolean next = target.next();
+                if (next) {
+                    rows++;
+                }
+                return next;
+            } else if (name.equals("close")) {
+                target.close();
+                if (!closed) {
+                    closed = true;
+                    metrics.query(System.nanoTime() - start, sqlNanos, rows);
+                }
+                return null;
+            }
+            return super.handle(proxy, method, args);
+        }
+    }
+}
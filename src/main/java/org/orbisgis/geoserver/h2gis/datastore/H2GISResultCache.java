@@ -0,0 +1,452 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
+import org.orbisgis.geoserver.h2gis.datastore.jmx.ResultCacheMonitor;
+
+/**
+ * In memory cache of the results of the feature queries.
+ *
+ * The connections of the store are wrapped so that the queries tagged by the
+ * dialect with their feature type are looked up in the cache. The key is the
+ * feature type, the SQL and its parameters: the filter, the properties, the
+ * sort, the limits and the hints changing the SQL all end in it. A result is
+ * recorded while it is read and kept if it is read to its end and has at
+ * most maxRows rows, the least recently used results are evicted.
+ *
+ * The writes made through the store invalidate the results of their feature
+ * type, when they are executed and again when they are committed. A
+ * connection does not use the cache for a feature type it has modified in
+ * its current transaction. The writes made outside the store are not seen.
+ */
+public class H2GISResultCache {
+
+    private final int maxEntries;
+    private final int maxRows;
+    private final ResultCacheMonitor monitor = new ResultCacheMonitor();
+    private final Map<List<Object>, CachedResult> entries;
+    private final Map<String, Long> generations = new HashMap<String, Long>();
+
+    /**
+     *
+     * @param maxEntries number of results kept
+     * @param maxRows results with more rows are not kept
+     */
+    public H2GISResultCache(final int maxEntries, int maxRows) {
+        this.maxEntries = maxEntries;
+        this.maxRows = maxRows;
+        entries = new LinkedHashMap<List<Object>, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedResult> eldest) {
+                if (size() > maxEntries) {
+                    monitor.evicted();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cache statistics
+     */
+    public ResultCacheMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * @return number of results kept
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Wrap a connection of the store so that its queries use the cache
+     *
+     * @param cx
+     * @return
+     */
+    public Connection wrap(Connection cx) {
+        return JDBCProxies.wrap(Connection.class, new ConnectionHandler(cx));
+    }
+
+    /**
+     * Discard the results of a feature type
+     *
+     * @param typeName
+     */
+    public synchronized void invalidate(String typeName) {
+        Long generation = generations.get(typeName);
+        generations.put(typeName, generation == null ? 1 : generation + 1);
+        int count = 0;
+        for (Iterator<List<Object>> it = entries.keySet().iterator(); it.hasNext();) {
+            if (typeName.equals(it.next().get(0))) {
+                it.remove();
+                count++;
+            }
+        }
+        if (count > 0) {
+            monitor.invalidated(count);
+            monitor.setEntryCount(entries.size());
+        }
+    }
+
+    /**
+     * Discard all the results
+     */
+    public synchronized void clear() {
+        for (Map.Entry<String, Long> generation : generations.entrySet()) {
+            generation.setValue(generation.getValue() + 1);
+        }
+        monitor.invalidated(entries.size());
+        entries.clear();
+        monitor.setEntryCount(0);
+    }
+
+    private synchronized CachedResult get(List<Object> key) {
+        return entries.get(key);
+    }
+
+    private synchronized long getGeneration(String typeName) {
+        Long generation = generations.get(typeName);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * Keep a result unless its feature type has been modified since the
+     * query started
+     */
+    private synchronized void put(List<Object> key, CachedResult result, long generation) {
+        if (getGeneration((String) key.get(0)) == generation) {
+            entries.put(key, result);
+            monitor.setEntryCount(entries.size());
+        }
+    }
+
+    /**
+     * Tag a statement with the feature type it is about to query, only the
+     * tagged queries use the cache
+     *
+     * @param st a statement of the store
+     * @param typeName
+     */
+    static void selecting(Statement st, String typeName) {
+        StatementHandler handler = JDBCProxies.getHandler(st, StatementHandler.class);
+        if (handler != null) {
+            handler.typeName = typeName;
+        }
+    }
+
+    /**
+     * Invalidate the results of a feature type modified through a connection
+     * of the store
+     *
+     * @param cx a connection of the store
+     * @param typeName
+     */
+    static void modifying(Connection cx, String typeName) {
+        ConnectionHandler handler = JDBCProxies.getHandler(cx, ConnectionHandler.class);
+        if (handler != null) {
+            handler.modifying(typeName);
+        }
+    }
+
+    /**
+     * Wraps the statements and invalidates the modified feature types
+     */
+    private final class ConnectionHandler extends JDBCProxies.AbstractConnectionHandler {
+
+        private final Set<String> modified = new HashSet<String>();
+
+        ConnectionHandler(Connection target) {
+            super(target);
+        }
+
+        void modifying(String typeName) {
+            modified.add(typeName);
+            invalidate(typeName);
+        }
+
+        /**
+         * Invalidate again the feature types modified by the transaction, once
+         * the changes are visible to the other connections
+         */
+        void endTransaction() {
+            for (String typeName : modified) {
+                invalidate(typeName);
+            }
+            modified.clear();
+        }
+
+        void executed() throws SQLException {
+            if (!modified.isEmpty() && target.getAutoCommit()) {
+                endTransaction();
+            }
+        }
+
+        @Override
+        JDBCProxies.Handler createStatementHandler(Statement st, String sql, Connection connection) {
+            return new StatementHandler(st, sql, this, connection);
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = super.handle(proxy, method, args);
+            String name = method.getName();
+            if (name.equals("commit") || name.equals("rollback") || name.equals("close")
+                    || name.equals("setAutoCommit")) {
+                endTransaction();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Looks up the tagged queries in the cache and keeps track of the
+     * parameters of the prepared statements
+     */
+    private final class StatementHandler extends JDBCProxies.AbstractStatementHandler {
+
+        private final ConnectionHandler connectionHandler;
+        private final Map<Integer, Object> parameters = new TreeMap<Integer, Object>();
+        private boolean cacheable = true;
+        String typeName;
+
+        StatementHandler(Statement target, String sql, ConnectionHandler connectionHandler,
+                Connection connection) {
+            super(target, sql, connection);
+            this.connectionHandler = connectionHandler;
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("executeQuery")) {
+                return executeQuery((Statement) proxy, method, args);
+            } else if (name.startsWith("set") && args != null && args.length >= 2
+                    && args[0] instanceof Integer && method.getParameterTypes()[0] == int.class) {
+                setParameter((Integer) args[0], args);
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+                cacheable = true;
+            }
+            Object result = super.handle(proxy, method, args);
+            if (name.startsWith("execute")) {
+                connectionHandler.executed();
+            }
+            return result;
+        }
+
+        private void setParameter(int index, Object[] args) {
+            List<Object> value = new ArrayList<Object>(args.length - 1);
+            for (int i = 1; i < args.length; i++) {
+                Object arg = args[i];
+                if (arg instanceof byte[]) {
+                    arg = ByteBuffer.wrap(((byte[]) arg).clone());
+                } else if (arg instanceof InputStream || arg instanceof Reader || arg instanceof Blob
+                        || arg instanceof Clob) {
+                    cacheable = false;
+                }
+                value.add(arg);
+            }
+            parameters.put(index, value);
+        }
+
+        private Object executeQuery(Statement proxy, Method method, Object[] args) throws Throwable {
+            String type = typeName;
+            typeName = null;
+            if (type == null || !cacheable || connectionHandler.modified.contains(type)) {
+                return JDBCProxies.invoke(target, method, args);
+            }
+            String query = args != null && args.length == 1 ? (String) args[0] : sql;
+            List<Object> key = Arrays.<Object>asList(type, query, new TreeMap<Integer, Object>(parameters));
+            CachedResult cached = get(key);
+            if (cached != null) {
+                monitor.hit();
+                return new CachedResultSet(cached, proxy);
+            }
+            monitor.miss();
+            long generation = getGeneration(type);
+            ResultSet rs = (ResultSet) JDBCProxies.invoke(target, method, args);
+            return JDBCProxies.wrap(ResultSet.class, new RecordingHandler(rs, proxy, key, generation));
+        }
+    }
+
+    /**
+     * Copies the rows of a result while it is read
+     */
+    private final class RecordingHandler extends JDBCProxies.AbstractResultSetHandler {
+
+        private final List<Object> key;
+        private final long generation;
+        private CachedResult result;
+        private boolean[] geometries;
+        private boolean recording = true;
+
+        RecordingHandler(ResultSet target, Statement statement, List<Object> key, long generation) {
+            super(target, statement);
+            this.key = key;
+            this.generation = generation;
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("next")) {
+                boolean next = target.next();
+                if (recording) {
+                    if (next) {
+                        record();
+                    } else {
+                        recording = false;
+                        put(key, result != null ? result : new CachedResult(target.getMetaData()), generation);
+                    }
+                }
+                return next;
+            }
+            return super.handle(proxy, method, args);
+        }
+
+        private void record() throws SQLException {
+            if (result == null) {
+                result = new CachedResult(target.getMetaData());
+                geometries = new boolean[result.names.length];
+                for (int i = 0; i < geometries.length; i++) {
+                    geometries[i] = "GEOMETRY".equalsIgnoreCase(result.typeNames[i]);
+                }
+            }
+            if (result.rows.size() >= maxRows) {
+                stopRecording();
+                return;
+            }
+            Object[] row = new Object[geometries.length];
+            for (int i = 0; i < row.length; i++) {
+                // geometries are kept as they are read by the dialect
+                Object value = geometries[i] ? target.getBytes(i + 1) : target.getObject(i + 1);
+                if (value instanceof Blob || value instanceof Clob) {
+                    stopRecording();
+                    return;
+                }
+                row[i] = value;
+            }
+            result.rows.add(row);
+        }
+
+        private void stopRecording() {
+            recording = false;
+            result = null;
+        }
+    }
+
+    /**
+     * The columns and the rows of a query result
+     */
+    private static final class CachedResult {
+
+        final String[] names;
+        final String[] typeNames;
+        final int[] types;
+        final int[] precisions;
+        final int[] scales;
+        final List<Object[]> rows = new ArrayList<Object[]>();
+
+        CachedResult(ResultSetMetaData metaData) throws SQLException {
+            int count = metaData.getColumnCount();
+            names = new String[count];
+            typeNames = new String[count];
+            types = new int[count];
+            precisions = new int[count];
+            scales = new int[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = metaData.getColumnLabel(i + 1);
+                typeNames[i] = metaData.getColumnTypeName(i + 1);
+                types[i] = metaData.getColumnType(i + 1);
+                precisions[i] = metaData.getPrecision(i + 1);
+                scales[i] = metaData.getScale(i + 1);
+            }
+        }
+    }
+
+    /**
+     * A cached result, read again
+     */
+    private static final class CachedResultSet extends SimpleResultSet {
+
+        private final Statement statement;
+
+        CachedResultSet(final CachedResult result, Statement statement) {
+            super(new SimpleRowSource() {
+                private int index = 0;
+
+                @Override
+                public Object[] readRow() {
+                    return index < result.rows.size() ? result.rows.get(index++) : null;
+                }
+
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public void reset() {
+                    index = 0;
+                }
+            });
+            this.statement = statement;
+            for (int i = 0; i < result.names.length; i++) {
+                addColumn(result.names[i], result.types[i], result.precisions[i], result.scales[i]);
+            }
+        }
+
+        @Override
+        public Statement getStatement() {
+            return statement;
+        }
+    }
+}
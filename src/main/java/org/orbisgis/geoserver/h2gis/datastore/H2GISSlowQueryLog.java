@@ -0,0 +1,329 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Logs the feature queries slower than a threshold with their OGC filter,
+ * their SQL, their timings and the H2 plan.
+ *
+ * The connections of the store are wrapped and the statements tagged by the
+ * dialect are timed: the time spent in the JDBC driver executing the query
+ * and reading its rows, not the time spent by the caller between the rows.
+ * The filter is the one last encoded by {@link H2GISFilterToSQL} or
+ * {@link H2GISPSFilterToSQL} for the feature type in the current thread.
+ *
+ * The plan is read with EXPLAIN on another connection by a background
+ * thread, the slow queries are dropped when it can not keep up.
+ */
+public class H2GISSlowQueryLog {
+
+    private static final Logger LOGGER = Logging.getLogger(H2GISSlowQueryLog.class);
+
+    /**
+     * Number of slow queries waiting for their plan
+     */
+    private static final int QUEUE_SIZE = 100;
+
+    private static final AtomicInteger ACTIVE_LOGS = new AtomicInteger();
+
+    private static final ThreadLocal<EncodedFilter> ENCODED_FILTERS = new ThreadLocal<EncodedFilter>();
+
+    private final DataSource dataSource;
+    private final long thresholdNanos;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger slowQueryCount = new AtomicInteger();
+
+    /**
+     *
+     * @param dataSource the pool used to read the plans
+     * @param thresholdMillis the queries taking more time are logged
+     */
+    public H2GISSlowQueryLog(DataSource dataSource, long thresholdMillis) {
+        this.dataSource = dataSource;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "H2GIS slow query log");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        ACTIVE_LOGS.incrementAndGet();
+    }
+
+    /**
+     * @return number of slow queries seen
+     */
+    public int getSlowQueryCount() {
+        return slowQueryCount.get();
+    }
+
+    /**
+     * Wrap a connection of the store so that its slow queries are logged
+     *
+     * @param cx
+     * @return
+     */
+    public Connection wrap(Connection cx) {
+        return JDBCProxies.wrap(Connection.class, new ConnectionHandler(cx));
+    }
+
+    /**
+     * Stop the thread reading the plans
+     */
+    public void close() {
+        if (!executor.isShutdown()) {
+            executor.shutdownNow();
+            ACTIVE_LOGS.decrementAndGet();
+        }
+    }
+
+    /**
+     * Remember the filter being encoded in the current thread, while a log
+     * is active
+     *
+     * @param featureType may be null
+     * @param filter
+     */
+    static void encoding(SimpleFeatureType featureType, Filter filter) {
+        if (ACTIVE_LOGS.get() > 0 && featureType != null) {
+            ENCODED_FILTERS.set(new EncodedFilter(featureType.getTypeName(), filter));
+        }
+    }
+
+    /**
+     * Tag a statement with the feature type it is about to query and the
+     * filter encoded for it
+     *
+     * @param st a statement of the store
+     * @param typeName
+     */
+    static void selecting(Statement st, String typeName) {
+        EncodedFilter encoded = ENCODED_FILTERS.get();
+        ENCODED_FILTERS.remove();
+        StatementHandler handler = JDBCProxies.getHandler(st, StatementHandler.class);
+        if (handler != null) {
+            handler.typeName = typeName;
+            handler.filter = encoded != null && encoded.typeName.equals(typeName) ? encoded.filter : null;
+        }
+    }
+
+    /**
+     * Log a slow query, its plan is read in the background
+     */
+    private void slow(final SlowQuery query) {
+        slowQueryCount.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    LOGGER.warning(query.toString(explain(query)));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    private String explain(SlowQuery query) {
+        Connection cx = null;
+        try {
+            cx = dataSource.getConnection();
+            PreparedStatement ps = cx.prepareStatement("EXPLAIN " + query.sql);
+            try {
+                for (Map.Entry<Integer, Object> parameter : query.parameters.entrySet()) {
+                    ps.setObject(parameter.getKey(), parameter.getValue());
+                }
+                ResultSet rs = ps.executeQuery();
+                try {
+                    StringBuilder plan = new StringBuilder();
+                    while (rs.next()) {
+                        plan.append(rs.getString(1)).append('\n');
+                    }
+                    return plan.toString();
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                ps.close();
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Cannot explain " + query.sql, e);
+            return "not available: " + e.getMessage();
+        } finally {
+            try {
+                if (cx != null) {
+                    cx.close();
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Cannot close the connection", e);
+            }
+        }
+    }
+
+    private static final class EncodedFilter {
+
+        final String typeName;
+        final Filter filter;
+
+        EncodedFilter(String typeName, Filter filter) {
+            this.typeName = typeName;
+            this.filter = filter;
+        }
+    }
+
+    private static final class SlowQuery {
+
+        String typeName;
+        Filter filter;
+        String sql;
+        Map<Integer, Object> parameters;
+        long executeNanos;
+        long totalNanos;
+        long rows;
+
+        String toString(String plan) {
+            return "Slow query on " + typeName + ": " + TimeUnit.NANOSECONDS.toMillis(totalNanos)
+                    + " ms (" + TimeUnit.NANOSECONDS.toMillis(executeNanos) + " ms to execute, "
+                    + rows + " rows)\nfilter: " + filter + "\nsql: " + sql
+                    + (parameters.isEmpty() ? "" : "\nparameters: " + parameters.values())
+                    + "\nplan: " + plan;
+        }
+    }
+
+    private final class ConnectionHandler extends JDBCProxies.AbstractConnectionHandler {
+
+        ConnectionHandler(Connection target) {
+            super(target);
+        }
+
+        @Override
+        JDBCProxies.Handler createStatementHandler(Statement st, String sql, Connection connection) {
+            return new StatementHandler(st, sql, connection);
+        }
+    }
+
+    private final class StatementHandler extends JDBCProxies.AbstractStatementHandler {
+
+        private final Map<Integer, Object> parameters = new TreeMap<Integer, Object>();
+        String typeName;
+        Filter filter;
+
+        StatementHandler(Statement target, String sql, Connection connection) {
+            super(target, sql, connection);
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("executeQuery") && typeName != null) {
+                SlowQuery query = new SlowQuery();
+                query.typeName = typeName;
+                query.filter = filter;
+                query.sql = args != null && args.length == 1 ? (String) args[0] : sql;
+                query.parameters = new TreeMap<Integer, Object>(parameters);
+                long start = System.nanoTime();
+                ResultSet rs = (ResultSet) JDBCProxies.invoke(target, method, args);
+                query.executeNanos = System.nanoTime() - start;
+                return JDBCProxies.wrap(ResultSet.class, new ResultSetHandler(rs, (Statement) proxy, query));
+            } else if (name.startsWith("set") && args != null && args.length >= 2
+                    && args[0] instanceof Integer && method.getParameterTypes()[0] == int.class) {
+                // setNull gives the SQL type as second argument
+                Object value = name.equals("setNull") ? null : args[1];
+                if (value instanceof InputStream || value instanceof Reader) {
+                    value = null;
+                } else if (value instanceof byte[]) {
+                    value = Arrays.copyOf((byte[]) value, ((byte[]) value).length);
+                }
+                parameters.put((Integer) args[0], value);
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            }
+            return super.handle(proxy, method, args);
+        }
+    }
+
+    private final class ResultSetHandler extends JDBCProxies.AbstractResultSetHandler {
+
+        private final SlowQuery query;
+        private boolean closed = false;
+
+        ResultSetHandler(ResultSet target, Statement statement, SlowQuery query) {
+            super(target, statement);
+            this.query = query;
+            query.totalNanos = query.executeNanos;
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("next")) {
+                long start = System.nanoTime();
+                boolean next = target.next();
+                query.totalNanos += System.nanoTime() - start;
+                if (next) {
+                    query.rows++;
+                }
+                return next;
+            } else if (name.equals("close")) {
+                target.close();
+                if (!closed) {
+                    closed = true;
+                    if (query.totalNanos > thresholdNanos) {
+                        slow(query);
+                    }
+                }
+                return null;
+            }
+            return super.handle(proxy, method, args);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.data.Transaction;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Finds the geometry columns of the published tables that have no spatial
+ * index. The tables loaded without GeoTools do not get the index created by
+ * {@link H2GISDialect#postCreateTable}, every bbox query on them is a full
+ * scan.
+ *
+ * The views are not audited, they can not be indexed.
+ */
+public class H2GISSpatialIndexAudit {
+
+    private static final Logger LOGGER = Logging.getLogger(H2GISSpatialIndexAudit.class);
+
+    private static final String UNINDEXED_COLUMNS = "SELECT G.F_TABLE_NAME, G.F_GEOMETRY_COLUMN"
+            + " FROM GEOMETRY_COLUMNS G, INFORMATION_SCHEMA.TABLES T"
+            + " WHERE G.F_TABLE_SCHEMA = ? AND T.TABLE_SCHEMA = G.F_TABLE_SCHEMA"
+            + " AND T.TABLE_NAME = G.F_TABLE_NAME AND T.TABLE_TYPE = 'TABLE'"
+            + " AND NOT EXISTS (SELECT 1 FROM INFORMATION_SCHEMA.INDEXES I"
+            + " WHERE I.TABLE_SCHEMA = G.F_TABLE_SCHEMA AND I.TABLE_NAME = G.F_TABLE_NAME"
+            + " AND I.COLUMN_NAME = G.F_GEOMETRY_COLUMN AND I.INDEX_TYPE_NAME = 'SPATIAL INDEX')"
+            + " ORDER BY G.F_TABLE_NAME, G.F_GEOMETRY_COLUMN";
+
+    /**
+     * What to do with the columns without spatial index
+     */
+    public enum Mode {
+
+        /**
+         * Nothing, the audit is not run
+         */
+        NONE("none"),
+        /**
+         * Log a warning for each column
+         */
+        LOG("log"),
+        /**
+         * Log a warning and create the index in the background
+         */
+        CREATE("create");
+
+        private final String name;
+
+        private Mode(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the name used by the store parameter
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @param name a mode name, null for the default one
+         * @return
+         */
+        public static Mode fromName(String name) {
+            if (name == null) {
+                return LOG;
+            }
+            for (Mode mode : values()) {
+                if (mode.name.equalsIgnoreCase(name.trim())) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown spatial index audit: " + name);
+        }
+    }
+
+    private final JDBCDataStore dataStore;
+
+    /**
+     *
+     * @param dataStore an H2GIS data store
+     */
+    public H2GISSpatialIndexAudit(JDBCDataStore dataStore) {
+        this.dataStore = dataStore;
+    }
+
+    /**
+     * List the geometry columns of the published tables without spatial
+     * index
+     *
+     * @return the table and the column of each unindexed geometry
+     * @throws IOException
+     */
+    public List<String[]> findUnindexedColumns() throws IOException {
+        H2GISDialect dialect = H2GISPSDialect.getH2GISDialect(dataStore);
+        String schema = dataStore.getDatabaseSchema() != null ? dataStore.getDatabaseSchema() : "PUBLIC";
+        List<String[]> columns = new ArrayList<String[]>();
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        try {
+            PreparedStatement ps = cx.prepareStatement(UNINDEXED_COLUMNS);
+            try {
+                ps.setString(1, schema);
+                ResultSet rs = ps.executeQuery();
+                try {
+                    while (rs.next()) {
+                        String table = rs.getString(1);
+                        if (dialect.includeTable(schema, table, cx)) {
+                            columns.add(new String[]{table, rs.getString(2)});
+                        }
+                    }
+                } finally {
+                    dataStore.closeSafe(rs);
+                }
+            } finally {
+                dataStore.closeSafe(ps);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to audit the spatial indexes", e);
+        } finally {
+            dataStore.closeSafe(cx);
+        }
+        return columns;
+    }
+
+    /**
+     * Log the geometry columns without spatial index and, in the CREATE mode,
+     * create their indexes in a background thread
+     *
+     * @param mode
+     * @return the unindexed columns, the indexes may not be created yet
+     * @throws IOException
+     */
+    public List<String[]> audit(Mode mode) throws IOException {
+        if (mode == Mode.NONE) {
+            return new ArrayList<String[]>();
+        }
+        final List<String[]> columns = findUnindexedColumns();
+        for (String[] column : columns) {
+            LOGGER.log(Level.WARNING, "The geometry column {0}.{1} has no spatial index{2}",
+                    new Object[]{column[0], column[1], mode == Mode.CREATE ? ", it is being created" : ""});
+        }
+        if (mode == Mode.CREATE && !columns.isEmpty()) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    createIndexes(columns);
+                }
+            }, "H2GIS spatial index creation");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return columns;
+    }
+
+    /**
+     * Create the spatial indexes, one column after the other so that only one
+     * table is locked at a time
+     *
+     * @param columns the table and the column of each geometry
+     */
+    public void createIndexes(List<String[]> columns) {
+        H2GISDialect dialect = H2GISPSDialect.getH2GISDialect(dataStore);
+        for (String[] column : columns) {
+            Connection cx = null;
+            try {
+                cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+                long start = System.currentTimeMillis();
+                if (dialect.createSpatialIndex(dataStore.getDatabaseSchema(), column[0], column[1], cx)) {
+                    LOGGER.log(Level.INFO, "Spatial index of {0}.{1} created in {2} ms",
+                            new Object[]{column[0], column[1], System.currentTimeMillis() - start});
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Cannot create the spatial index of " + column[0] + "."
+                        + column[1], e);
+            } finally {
+                dataStore.closeSafe(cx);
+            }
+        }
+    }
+}
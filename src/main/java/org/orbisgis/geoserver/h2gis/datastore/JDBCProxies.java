@@ -0,0 +1,221 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Helpers of the dynamic proxies wrapping the connections of the pool, see
+ * {@link H2GISDataSource}. The proxies are stacked, the helpers walk through
+ * them. The handlers extend the base handlers below and only override the
+ * calls they intercept.
+ */
+final class JDBCProxies {
+
+    /**
+     * Handler of a proxy wrapping a JDBC object
+     */
+    interface Handler extends InvocationHandler {
+
+        /**
+         * @return the wrapped object, may be another proxy
+         */
+        Object getTarget();
+    }
+
+    /**
+     * Base of the handlers: a proxy is only equal to itself and the calls it
+     * does not intercept go to the wrapped object
+     *
+     * @param <T> the JDBC interface
+     */
+    abstract static class AbstractHandler<T> implements Handler {
+
+        final T target;
+
+        AbstractHandler(T target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object getTarget() {
+            return target;
+        }
+
+        @Override
+        public final Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return handle(proxy, method, args);
+        }
+
+        /**
+         * Handle any call but equals and hashCode
+         */
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            return JDBCProxies.invoke(target, method, args);
+        }
+    }
+
+    /**
+     * Handler of a connection proxy, wrapping the statements it creates
+     */
+    abstract static class AbstractConnectionHandler extends AbstractHandler<Connection> {
+
+        AbstractConnectionHandler(Connection target) {
+            super(target);
+        }
+
+        /**
+         * @param st a statement created by the connection
+         * @param sql the SQL of a prepared statement, null for a statement
+         * @param connection the connection proxy
+         * @return the handler of the statement proxy, null to not wrap it
+         */
+        abstract Handler createStatementHandler(Statement st, String sql, Connection connection);
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = super.handle(proxy, method, args);
+            String name = method.getName();
+            boolean prepared = name.equals("prepareStatement");
+            if (prepared || name.equals("createStatement")) {
+                Handler handler = createStatementHandler((Statement) result, prepared ? (String) args[0] : null,
+                        (Connection) proxy);
+                if (handler != null) {
+                    Class<? extends Statement> type = prepared ? PreparedStatement.class : Statement.class;
+                    return wrap(type, handler);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Handler of a statement proxy, its connection is the connection proxy
+     */
+    abstract static class AbstractStatementHandler extends AbstractHandler<Statement> {
+
+        /**
+         * The SQL of a prepared statement, null for a statement
+         */
+        final String sql;
+        final Connection connection;
+
+        AbstractStatementHandler(Statement target, String sql, Connection connection) {
+            super(target);
+            this.sql = sql;
+            this.connection = connection;
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("getConnection")) {
+                return connection;
+            }
+            return super.handle(proxy, method, args);
+        }
+    }
+
+    /**
+     * Handler of a result proxy, its statement is the statement proxy
+     */
+    abstract static class AbstractResultSetHandler extends AbstractHandler<ResultSet> {
+
+        final Statement statement;
+
+        AbstractResultSetHandler(ResultSet target, Statement statement) {
+            super(target);
+            this.statement = statement;
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("getStatement")) {
+                return statement;
+            }
+            return super.handle(proxy, method, args);
+        }
+    }
+
+    private JDBCProxies() {
+    }
+
+    /**
+     * Find a handler in the stack of proxies of a JDBC object
+     *
+     * @param proxy
+     * @param type the handler class
+     * @return the handler or null if the object is not wrapped by such a proxy
+     */
+    static <T extends Handler> T getHandler(Object proxy, Class<T> type) {
+        Object current = proxy;
+        while (current != null && Proxy.isProxyClass(current.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(current);
+            if (type.isInstance(handler)) {
+                return type.cast(handler);
+            } else if (!(handler instanceof Handler)) {
+                return null;
+            }
+            current = ((Handler) handler).getTarget();
+        }
+        return null;
+    }
+
+    /**
+     * Create a proxy
+     *
+     * @param type the JDBC interface
+     * @param handler
+     * @return
+     */
+    static <T> T wrap(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(JDBCProxies.class.getClassLoader(),
+                new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Invoke a method on the wrapped object, rethrowing its exceptions
+     */
+    static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sets of H2 settings tuned for a given usage of an embedded database.
+ *
+ * @link http://www.h2database.com/html/features.html#database_url
+ */
+public enum PerformanceProfile {
+
+    /**
+     * The H2 defaults
+     */
+    DEFAULT("default"),
+    /**
+     * Serving maps and features: large page cache, concurrent queries and a
+     * larger cache of parsed statements for the repeated tile queries
+     */
+    READ_MOSTLY("read-mostly") {
+        @Override
+        void fillSettings(Map<String, String> settings) {
+            settings.put("CACHE_SIZE", "262144");
+            settings.put("MULTI_THREADED", "TRUE");
+            settings.put("QUERY_CACHE_SIZE", "64");
+        }
+    },
+    /**
+     * Loading large datasets: large page cache, no transaction log, no undo
+     * log and no locking. A crash during the load can corrupt the
+     * database, the profile must not be used by a store serving requests.
+     */
+    BULK_LOAD("bulk-load") {
+        @Override
+        void fillSettings(Map<String, String> settings) {
+            settings.put("CACHE_SIZE", "262144");
+            settings.put("LOG", "0");
+            settings.put("UNDO_LOG", "0");
+            settings.put("LOCK_MODE", "0");
+        }
+    };
+
+    private final String name;
+
+    private PerformanceProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the profile used in the store parameters
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the H2 settings of the profile, in the order they are written in
+     * the database URL
+     */
+    public Map<String, String> getSettings() {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        fillSettings(settings);
+        return Collections.unmodifiableMap(settings);
+    }
+
+    void fillSettings(Map<String, String> settings) {
+    }
+
+    /**
+     * Return the profile from its name
+     *
+     * @param name
+     * @return the profile, {@link #DEFAULT} if the name is null
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static PerformanceProfile fromName(String name) {
+        if (name == null) {
+            return DEFAULT;
+        }
+        for (PerformanceProfile profile : values()) {
+            if (profile.name.equalsIgnoreCase(name) || profile.name().equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown H2GIS performance profile " + name);
+    }
+}
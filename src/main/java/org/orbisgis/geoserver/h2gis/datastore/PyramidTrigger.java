@@ -0,0 +1,110 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import org.h2.api.Trigger;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISPyramids.PyramidLevel;
+
+/**
+ * Keeps the levels of a pyramid in line with the rows of the layer table.
+ *
+ * The trigger is created by {@link H2GISPyramids#build(String, double...)}
+ * and is loaded by H2 from the plugin, a database with pyramids can only be
+ * edited where the plugin is on the classpath.
+ */
+public class PyramidTrigger implements Trigger {
+
+    private List<PyramidLevel> levels;
+    private int keyIndex = -1;
+    private int geometryIndex = -1;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName,
+            boolean before, int type) throws SQLException {
+        levels = H2GISPyramids.getLevels(conn, schemaName, tableName);
+        if (levels.isEmpty()) {
+            return;
+        }
+        PyramidLevel level = levels.get(0);
+        ResultSet rs = conn.getMetaData().getColumns(null, schemaName, tableName, null);
+        try {
+            while (rs.next()) {
+                String column = rs.getString("COLUMN_NAME");
+                if (column.equals(level.getKeyColumn())) {
+                    keyIndex = rs.getInt("ORDINAL_POSITION") - 1;
+                } else if (column.equals(level.getColumn())) {
+                    geometryIndex = rs.getInt("ORDINAL_POSITION") - 1;
+                }
+            }
+        } finally {
+            rs.close();
+        }
+        if (keyIndex < 0 || geometryIndex < 0) {
+            throw new SQLException("The pyramid columns of " + tableName + " do not exist");
+        }
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        for (PyramidLevel level : levels) {
+            String levelTable = H2GISDialect.quote(level.getSchema(), level.getLevelTable());
+            if (oldRow != null) {
+                PreparedStatement delete = conn.prepareStatement("DELETE FROM " + levelTable
+                        + " WHERE " + H2GISDialect.quote(level.getKeyColumn()) + " = ?");
+                try {
+                    delete.setObject(1, oldRow[keyIndex]);
+                    delete.executeUpdate();
+                } finally {
+                    delete.close();
+                }
+            }
+            if (newRow != null) {
+                PreparedStatement insert = conn.prepareStatement("INSERT INTO " + levelTable
+                        + " VALUES (?, ST_SimplifyPreserveTopology(?, " + level.getTolerance() + "))");
+                try {
+                    insert.setObject(1, newRow[keyIndex]);
+                    insert.setObject(2, newRow[geometryIndex]);
+                    insert.executeUpdate();
+                } finally {
+                    insert.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+    }
+
+    @Override
+    public void remove() throws SQLException {
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore;
+
+/**
+ * Server side generalization of the geometries, applied when a query carries
+ * a geometry simplification distance (usually the size of a pixel).
+ */
+public enum SimplificationMethod {
+
+    /**
+     * Douglas-Peucker simplification, the fastest but it can collapse or
+     * invalidate polygons
+     */
+    SIMPLIFY("simplify") {
+        @Override
+        void encode(String column, double distance, int vertexCap, StringBuffer sql) {
+            sql.append("ST_Simplify(").append(column).append(", ").append(distance).append(")");
+        }
+    },
+    /**
+     * Simplification which keeps the polygons valid and never removes a ring
+     */
+    PRESERVE_TOPOLOGY("preserve-topology") {
+        @Override
+        void encode(String column, double distance, int vertexCap, StringBuffer sql) {
+            sql.append("ST_SimplifyPreserveTopology(").append(column).append(", ")
+                    .append(distance).append(")");
+        }
+    },
+    /**
+     * Rounds the coordinates to a grid of the distance size, the vertices
+     * falling on the same grid point are merged. The geometry is scaled to
+     * the grid, rounded to integers and scaled back.
+     */
+    SNAP_TO_GRID("snap-to-grid") {
+        @Override
+        void encode(String column, double distance, int vertexCap, StringBuffer sql) {
+            if (distance <= 0) {
+                sql.append(column);
+                return;
+            }
+            sql.append("ST_Scale(ST_PrecisionReducer(ST_Scale(").append(column).append(", ")
+                    .append(1 / distance).append(", ").append(1 / distance).append("), 0), ")
+                    .append(distance).append(", ").append(distance).append(")");
+        }
+    },
+    /**
+     * Only the geometries having more vertices than the cap are simplified,
+     * preserving their topology
+     */
+    VERTEX_CAP("vertex-cap") {
+        @Override
+        void encode(String column, double distance, int vertexCap, StringBuffer sql) {
+            sql.append("CASE WHEN ST_NPoints(").append(column).append(") > ").append(vertexCap)
+                    .append(" THEN ");
+            PRESERVE_TOPOLOGY.encode(column, distance, vertexCap, sql);
+            sql.append(" ELSE ").append(column).append(" END");
+        }
+    };
+
+    private final String name;
+
+    private SimplificationMethod(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the method used in the store parameters
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Write the simplified geometry expression
+     *
+     * @param column the encoded geometry column
+     * @param distance the simplification distance
+     * @param vertexCap number of vertices over which a geometry is simplified
+     * by {@link #VERTEX_CAP}
+     * @param sql
+     */
+    abstract void encode(String column, double distance, int vertexCap, StringBuffer sql);
+
+    /**
+     * Return the method from its name
+     *
+     * @param name
+     * @return the method, {@link #SIMPLIFY} if the name is null
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static SimplificationMethod fromName(String name) {
+        if (name == null) {
+            return SIMPLIFY;
+        }
+        for (SimplificationMethod method : values()) {
+            if (method.name.equalsIgnoreCase(name) || method.name().equalsIgnoreCase(name)) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("Unknown H2GIS simplification method " + name);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.dbcp.BasicDataSource;
+
+/**
+ * Publishes the state of a DBCP pool and the time spent borrowing its
+ * connections.
+ */
+public class ConnectionPoolMonitor implements ConnectionPoolMonitorMBean {
+
+    private final BasicDataSource dataSource;
+    private final LatencyRecorder borrowWait = new LatencyRecorder(1024);
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    /**
+     * @param dataSource the monitored pool
+     */
+    public ConnectionPoolMonitor(BasicDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Record the time spent to obtain a connection
+     *
+     * @param nanos
+     */
+    public void borrowed(long nanos) {
+        borrowWait.record(nanos);
+    }
+
+    /**
+     * Record a failure to obtain a connection because the pool is exhausted
+     */
+    public void exhausted() {
+        exhaustedCount.incrementAndGet();
+    }
+
+    @Override
+    public int getNumActive() {
+        return dataSource.getNumActive();
+    }
+
+    @Override
+    public int getNumIdle() {
+        return dataSource.getNumIdle();
+    }
+
+    @Override
+    public int getMaxActive() {
+        return dataSource.getMaxActive();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrowWait.getCount();
+    }
+
+    @Override
+    public double getBorrowWaitMeanMillis() {
+        return borrowWait.getMeanMillis();
+    }
+
+    @Override
+    public double getBorrowWait50thPercentileMillis() {
+        return borrowWait.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getBorrowWait95thPercentileMillis() {
+        return borrowWait.getPercentileMillis(95);
+    }
+
+    @Override
+    public double getBorrowWait99thPercentileMillis() {
+        return borrowWait.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getBorrowWaitMaxMillis() {
+        return borrowWait.getMaxMillis();
+    }
+
+    @Override
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.jmx;
+
+/**
+ * Connection pool statistics of an H2GIS store
+ */
+public interface ConnectionPoolMonitorMBean {
+
+    /**
+     * @return number of connections currently borrowed from the pool
+     */
+    int getNumActive();
+
+    /**
+     * @return number of idle connections in the pool
+     */
+    int getNumIdle();
+
+    /**
+     * @return maximum number of connections of the pool
+     */
+    int getMaxActive();
+
+    /**
+     * @return number of connections borrowed since the store creation
+     */
+    long getBorrowCount();
+
+    /**
+     * @return mean time spent waiting for a connection, in milliseconds
+     */
+    double getBorrowWaitMeanMillis();
+
+    /**
+     * @return median time spent waiting for a connection, in milliseconds
+     */
+    double getBorrowWait50thPercentileMillis();
+
+    /**
+     * @return 95th percentile of the time spent waiting for a connection, in milliseconds
+     */
+    double getBorrowWait95thPercentileMillis();
+
+    /**
+     * @return 99th percentile of the time spent waiting for a connection, in milliseconds
+     */
+    double getBorrowWait99thPercentileMillis();
+
+    /**
+     * @return longest time spent waiting for a connection, in milliseconds
+     */
+    double getBorrowWaitMaxMillis();
+
+    /**
+     * @return number of times no connection could be borrowed before the timeout
+     */
+    long getExhaustedCount();
+}
@@ -0,0 +1,105 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.jmx;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the most recent latency samples of an operation and computes their
+ * percentiles on demand. Recording takes no lock, it runs on every
+ * connection borrow.
+ */
+public class LatencyRecorder {
+
+    private final AtomicLongArray samples;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param capacity number of recent samples used to compute the percentiles
+     */
+    public LatencyRecorder(int capacity) {
+        samples = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Record a sample
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long index = count.getAndIncrement();
+        samples.set((int) (index % samples.length()), nanos);
+        total.addAndGet(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return number of samples recorded since the creation
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return mean of all the samples, in milliseconds
+     */
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / (double) n / 1e6;
+    }
+
+    /**
+     * @return the longest sample, in milliseconds
+     */
+    public double getMaxMillis() {
+        return max.get() / 1e6;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the percentile of the recent samples, in milliseconds
+     */
+    public double getPercentileMillis(double percentile) {
+        int size = (int) Math.min(count.get(), samples.length());
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+}
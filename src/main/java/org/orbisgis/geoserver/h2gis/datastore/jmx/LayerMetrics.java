@@ -0,0 +1,140 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the query latencies, the rows and the geometry bytes read from a
+ * layer, and the time spent in H2 versus decoding the geometries.
+ */
+public class LayerMetrics implements LayerMetricsMBean {
+
+    private final LatencyRecorder queries = new LatencyRecorder(1024);
+    private final LatencyRecorder writes = new LatencyRecorder(1024);
+    private final AtomicLong sqlNanos = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final AtomicLong rowCount = new AtomicLong();
+    private final AtomicLong geometryBytes = new AtomicLong();
+
+    /**
+     * Record a query whose result has been closed
+     *
+     * @param nanos time from the execution to the closing of the result
+     * @param sqlNanos time spent executing the query
+     * @param rows number of rows read
+     */
+    public void query(long nanos, long sqlNanos, long rows) {
+        queries.record(nanos);
+        this.sqlNanos.addAndGet(sqlNanos);
+        rowCount.addAndGet(rows);
+    }
+
+    /**
+     * Record the decoding of a geometry
+     *
+     * @param bytes size of the geometry
+     * @param nanos time spent decoding it
+     */
+    public void decoded(int bytes, long nanos) {
+        geometryBytes.addAndGet(bytes);
+        decodeNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Record an insert, an update or a delete
+     *
+     * @param nanos
+     */
+    public void write(long nanos) {
+        writes.record(nanos);
+    }
+
+    @Override
+    public long getQueryCount() {
+        return queries.getCount();
+    }
+
+    @Override
+    public double getQueryMeanMillis() {
+        return queries.getMeanMillis();
+    }
+
+    @Override
+    public double getQuery50thPercentileMillis() {
+        return queries.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getQuery95thPercentileMillis() {
+        return queries.getPercentileMillis(95);
+    }
+
+    @Override
+    public double getQuery99thPercentileMillis() {
+        return queries.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getQueryMaxMillis() {
+        return queries.getMaxMillis();
+    }
+
+    @Override
+    public double getSqlMillis() {
+        return sqlNanos.get() / 1e6;
+    }
+
+    @Override
+    public double getDecodeMillis() {
+        return decodeNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getRowCount() {
+        return rowCount.get();
+    }
+
+    @Override
+    public long getGeometryBytes() {
+        return geometryBytes.get();
+    }
+
+    @Override
+    public long getWriteCount() {
+        return writes.getCount();
+    }
+
+    @Override
+    public double getWriteMeanMillis() {
+        return writes.getMeanMillis();
+    }
+
+    @Override
+    public double getWrite95thPercentileMillis() {
+        return writes.getPercentileMillis(95);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.jmx;
+
+/**
+ * Query statistics of a layer of an H2GIS store
+ */
+public interface LayerMetricsMBean {
+
+    /**
+     * @return number of feature queries
+     */
+    long getQueryCount();
+
+    /**
+     * @return mean time from the execution of a query to the closing of its
+     * result, in milliseconds
+     */
+    double getQueryMeanMillis();
+
+    /**
+     * @return median query time, in milliseconds
+     */
+    double getQuery50thPercentileMillis();
+
+    /**
+     * @return 95th percentile of the query time, in milliseconds
+     */
+    double getQuery95thPercentileMillis();
+
+    /**
+     * @return 99th percentile of the query time, in milliseconds
+     */
+    double getQuery99thPercentileMillis();
+
+    /**
+     * @return longest query time, in milliseconds
+     */
+    double getQueryMaxMillis();
+
+    /**
+     * @return total time spent by H2 executing the queries, in milliseconds
+     */
+    double getSqlMillis();
+
+    /**
+     * @return total time spent decoding the geometries, in milliseconds
+     */
+    double getDecodeMillis();
+
+    /**
+     * @return number of rows read
+     */
+    long getRowCount();
+
+    /**
+     * @return number of geometry bytes decoded
+     */
+    long getGeometryBytes();
+
+    /**
+     * @return number of inserts, updates and deletes
+     */
+    long getWriteCount();
+
+    /**
+     * @return mean time of the inserts, updates and deletes, in milliseconds
+     */
+    double getWriteMeanMillis();
+
+    /**
+     * @return 95th percentile of the time of the inserts, updates and
+     * deletes, in milliseconds
+     */
+    double getWrite95thPercentileMillis();
+}
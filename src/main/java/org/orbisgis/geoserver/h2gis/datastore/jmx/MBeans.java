@@ -0,0 +1,93 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.jmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registration of the H2GIS store MBeans in the platform MBean server
+ */
+public final class MBeans {
+
+    /** Domain of all the H2GIS MBeans */
+    public static final String DOMAIN = "org.orbisgis.geoserver.h2gis";
+
+    private static final Logger LOGGER = Logger.getLogger(MBeans.class.getName());
+
+    private MBeans() {
+    }
+
+    /**
+     * Register an MBean, a suffix is added to the name if it is already used
+     *
+     * @param mbean
+     * @param type MBean type, for instance ConnectionPool
+     * @param name name of the monitored object, for instance the database
+     * @return the registered name or null if the registration failed
+     */
+    public static ObjectName register(Object mbean, String type, String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String uniqueName = name;
+        for (int i = 2; i < 1000; i++) {
+            try {
+                ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type
+                        + ",name=" + ObjectName.quote(uniqueName));
+                server.registerMBean(mbean, objectName);
+                return objectName;
+            } catch (InstanceAlreadyExistsException e) {
+                uniqueName = name + "#" + i;
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Cannot register the " + type + " MBean of " + name, e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove an MBean registered with {@link #register(Object, String, String)}
+     *
+     * @param objectName may be null
+     */
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Cannot unregister the MBean " + objectName, e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.jmx;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the hits, misses and evictions of a query result cache.
+ */
+public class ResultCacheMonitor implements ResultCacheMonitorMBean {
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private final AtomicInteger entryCount = new AtomicInteger();
+
+    /**
+     * Record a query answered from the cache
+     */
+    public void hit() {
+        hitCount.incrementAndGet();
+    }
+
+    /**
+     * Record a cacheable query sent to the database
+     */
+    public void miss() {
+        missCount.incrementAndGet();
+    }
+
+    /**
+     * Record the removal of the least recently used result
+     */
+    public void evicted() {
+        evictionCount.incrementAndGet();
+    }
+
+    /**
+     * Record the removal of results of a modified layer
+     *
+     * @param count number of removed results
+     */
+    public void invalidated(int count) {
+        invalidationCount.addAndGet(count);
+    }
+
+    /**
+     * @param count number of results currently cached
+     */
+    public void setEntryCount(int count) {
+        entryCount.set(count);
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return entryCount.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.jmx;
+
+/**
+ * Query result cache statistics of an H2GIS store
+ */
+public interface ResultCacheMonitorMBean {
+
+    /**
+     * @return number of queries answered from the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return number of cacheable queries sent to the database
+     */
+    long getMissCount();
+
+    /**
+     * @return hits divided by the cacheable queries, 0 if there was none
+     */
+    double getHitRatio();
+
+    /**
+     * @return number of results currently cached
+     */
+    int getEntryCount();
+
+    /**
+     * @return number of results removed to make room for new ones
+     */
+    long getEvictionCount();
+
+    /**
+     * @return number of results discarded because their layer was modified
+     */
+    long getInvalidationCount();
+}
@@ -0,0 +1,255 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.mvt;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCFeatureSource;
+import org.geotools.jdbc.JDBCFeatureStore;
+import org.geotools.jdbc.PrimaryKey;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISDialect;
+import org.orbisgis.geoserver.h2gis.datastore.H2GISPSDialect;
+
+/**
+ * Encodes the layers of an H2GIS store as Mapbox Vector Tiles.
+ *
+ * The geometries are clipped to the tile envelope, plus a buffer, and
+ * converted to tile coordinates by H2GIS. The rows are then written straight
+ * into the tile, no feature is built. The invalid geometries are cleaned
+ * with a zero buffer before being clipped.
+ *
+ * This is a standalone encoder, the vector tile output of GeoServer does not
+ * go through it.
+ */
+public class H2GISTileEncoder {
+
+    private static final Logger LOGGER = Logging.getLogger(H2GISTileEncoder.class);
+
+    /**
+     * Default size of a tile in tile coordinates
+     */
+    public static final int DEFAULT_EXTENT = 4096;
+
+    /**
+     * Default buffer around a tile in tile coordinates
+     */
+    public static final int DEFAULT_BUFFER = 64;
+
+    private final JDBCDataStore dataStore;
+    private int extent = DEFAULT_EXTENT;
+    private int buffer = DEFAULT_BUFFER;
+
+    /**
+     *
+     * @param dataStore an H2GIS data store
+     */
+    public H2GISTileEncoder(JDBCDataStore dataStore) {
+        this.dataStore = dataStore;
+    }
+
+    /**
+     * @param extent size of a tile in tile coordinates
+     */
+    public void setExtent(int extent) {
+        this.extent = extent;
+    }
+
+    /**
+     * @param buffer size of the buffer around a tile in tile coordinates, the
+     * geometries are clipped at the border of the buffer
+     */
+    public void setBuffer(int buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Encode a tile, with a layer for each feature type
+     *
+     * @param tileEnvelope the tile envelope, in the native CRS of the layers
+     * @param typeNames the layers
+     * @return the tile bytes
+     * @throws IOException
+     */
+    public byte[] encode(Envelope tileEnvelope, String... typeNames) throws IOException {
+        MVTWriter writer = new MVTWriter();
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        try {
+            for (String typeName : typeNames) {
+                encodeLayer(writer, tileEnvelope, typeName, cx);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to encode the tile " + tileEnvelope, e);
+        } finally {
+            dataStore.closeSafe(cx);
+        }
+        return writer.toByteArray();
+    }
+
+    private void encodeLayer(MVTWriter writer, Envelope tile, String typeName, Connection cx)
+            throws IOException, SQLException {
+        SimpleFeatureType featureType = dataStore.getSchema(typeName);
+        GeometryDescriptor gd = featureType.getGeometryDescriptor();
+        if (gd == null) {
+            throw new IOException(typeName + " has no geometry");
+        }
+        String idColumn = getIdColumn(dataStore.getFeatureSource(typeName));
+        List<String> names = new ArrayList<String>();
+        for (AttributeDescriptor att : featureType.getAttributeDescriptors()) {
+            if (!(att instanceof GeometryDescriptor) && !att.getLocalName().equals(idColumn)) {
+                names.add(att.getLocalName());
+            }
+        }
+        Integer srid = H2GISPSDialect.getH2GISDialect(dataStore).getNativeSRID(featureType, gd, cx);
+        String sql = tileSQL(featureType, gd.getLocalName(), idColumn, names, srid);
+        LOGGER.fine(sql);
+
+        double scaleX = extent / tile.getWidth();
+        double scaleY = extent / tile.getHeight();
+        double bufferX = buffer / scaleX;
+        double bufferY = buffer / scaleY;
+        PreparedStatement ps = cx.prepareStatement(sql);
+        try {
+            int index = 1;
+            for (int i = 0; i < 2; i++) {
+                ps.setDouble(index++, tile.getMinX() - bufferX);
+                ps.setDouble(index++, tile.getMinY() - bufferY);
+                ps.setDouble(index++, tile.getMaxX() + bufferX);
+                ps.setDouble(index++, tile.getMaxY() + bufferY);
+                if (i == 0) {
+                    // the tile y axis goes down from the top of the tile
+                    ps.setDouble(index++, -tile.getMinX());
+                    ps.setDouble(index++, -tile.getMaxY());
+                    ps.setDouble(index++, scaleX);
+                    ps.setDouble(index++, -scaleY);
+                }
+            }
+            ps.setFetchSize(dataStore.getFetchSize());
+            ResultSet rs = ps.executeQuery();
+            try {
+                MVTWriter.Layer layer = writer.newLayer(typeName, extent);
+                String[] attributeNames = names.toArray(new String[names.size()]);
+                Object[] values = new Object[attributeNames.length];
+                WKBReader reader = new WKBReader(dataStore.getGeometryFactory());
+                int geometryColumn = values.length + (idColumn != null ? 2 : 1);
+                while (rs.next()) {
+                    byte[] wkb = rs.getBytes(geometryColumn);
+                    if (wkb == null) {
+                        continue;
+                    }
+                    Geometry geometry;
+                    try {
+                        geometry = reader.read(wkb);
+                    } catch (ParseException e) {
+                        throw new IOException("Cannot decode the geometry", e);
+                    }
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = rs.getObject(i + 1);
+                    }
+                    Long id = null;
+                    if (idColumn != null) {
+                        id = rs.getLong(values.length + 1);
+                        if (rs.wasNull() || id < 0) {
+                            id = null;
+                        }
+                    }
+                    layer.addFeature(id, attributeNames, values, geometry);
+                }
+                layer.finish();
+            } finally {
+                dataStore.closeSafe(rs);
+            }
+        } finally {
+            dataStore.closeSafe(ps);
+        }
+    }
+
+    /**
+     * The query of a layer: attributes, id and the geometry clipped, moved to
+     * the tile origin, scaled and rounded to the tile grid
+     */
+    private String tileSQL(SimpleFeatureType featureType, String geometryColumn, String idColumn,
+            List<String> names, Integer srid) {
+        String envelope = "ST_MakeEnvelope(?, ?, ?, ?" + (srid != null ? ", " + srid : "") + ")";
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (String name : names) {
+            sql.append(H2GISDialect.quote(name)).append(", ");
+        }
+        if (idColumn != null) {
+            sql.append(H2GISDialect.quote(idColumn)).append(", ");
+        }
+        // an invalid geometry would fail the intersection and so the whole tile,
+        // it is cleaned by a zero buffer first
+        String column = H2GISDialect.quote(geometryColumn);
+        sql.append("ST_PrecisionReducer(ST_Scale(ST_Translate(ST_Intersection(CASE WHEN ST_IsValid(")
+                .append(column).append(") THEN ").append(column).append(" ELSE ST_Buffer(")
+                .append(column).append(", 0) END, ").append(envelope)
+                .append("), ?, ?), ?, ?), 0) FROM ");
+        if (dataStore.getDatabaseSchema() != null) {
+            sql.append(H2GISDialect.quote(dataStore.getDatabaseSchema())).append(".");
+        }
+        sql.append(H2GISDialect.quote(featureType.getTypeName())).append(" WHERE ")
+                .append(column).append(" && ").append(envelope);
+        return sql.toString();
+    }
+
+    /**
+     * The primary key column used as feature id, it must be a single integer
+     * column
+     */
+    private static String getIdColumn(SimpleFeatureSource featureSource) {
+        PrimaryKey primaryKey = null;
+        if (featureSource instanceof JDBCFeatureStore) {
+            primaryKey = ((JDBCFeatureStore) featureSource).getPrimaryKey();
+        } else if (featureSource instanceof JDBCFeatureSource) {
+            primaryKey = ((JDBCFeatureSource) featureSource).getPrimaryKey();
+        }
+        if (primaryKey == null || primaryKey.getColumns().size() != 1) {
+            return null;
+        }
+        Class<?> type = primaryKey.getColumns().get(0).getType();
+        if (type == Integer.class || type == Long.class || type == Short.class) {
+            return primaryKey.getColumns().get(0).getName();
+        }
+        return null;
+    }
+}
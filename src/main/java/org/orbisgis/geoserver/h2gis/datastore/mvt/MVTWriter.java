@@ -0,0 +1,437 @@
+/*
+ * h2gis-gs is an extension to geoserver to connect H2GIS a spatial library 
+ * that brings spatial support to the H2 database engine.
+ *
+ * h2gis-gs  is distributed under GPL 3 license. It is produced by the DECIDE
+ * team of the Lab-STICC laboratory <http://www.labsticc.fr/> CNRS UMR 6285.
+ *
+ * Copyright (C) 2015-2016 Lab-STICC (CNRS UMR 6285)
+ *
+ * h2gis-gs  is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2gis-gs  is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2gis-gs. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.geoserver.h2gis.datastore.mvt;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes Mapbox Vector Tiles (version 2.1), the protocol buffers are encoded
+ * by hand. The geometries given to the layers must already be expressed in
+ * tile coordinates, rounded to integers.
+ *
+ * @link https://github.com/mapbox/vector-tile-spec/tree/master/2.1
+ */
+public class MVTWriter {
+
+    static final int POINT = 1;
+    static final int LINESTRING = 2;
+    static final int POLYGON = 3;
+
+    private static final int MOVE_TO = 1;
+    private static final int LINE_TO = 2;
+    private static final int CLOSE_PATH = 7;
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+
+    private final ProtobufOutput tile = new ProtobufOutput();
+
+    /**
+     * Start a new layer, it is written into the tile by {@link Layer#finish()}
+     *
+     * @param name
+     * @param extent size of the tile in tile coordinates
+     * @return
+     */
+    public Layer newLayer(String name, int extent) {
+        return new Layer(name, extent);
+    }
+
+    /**
+     * @return the encoded tile
+     */
+    public byte[] toByteArray() {
+        return tile.toByteArray();
+    }
+
+    /**
+     * A layer of the tile
+     */
+    public final class Layer {
+
+        private final String name;
+        private final int extent;
+        private final ProtobufOutput features = new ProtobufOutput();
+        private final ProtobufOutput feature = new ProtobufOutput();
+        private final Map<String, Integer> keys = new HashMap<String, Integer>();
+        private final List<String> keyList = new ArrayList<String>();
+        private final Map<Object, Integer> values = new HashMap<Object, Integer>();
+        private final List<Object> valueList = new ArrayList<Object>();
+        private final IntList tags = new IntList();
+        private final IntList commands = new IntList();
+        private int x;
+        private int y;
+        private int featureCount;
+
+        private Layer(String name, int extent) {
+            this.name = name;
+            this.extent = extent;
+        }
+
+        /**
+         * Add a feature, nothing is written if the geometry has no
+         * representation at the tile resolution
+         *
+         * @param id the feature id or null
+         * @param names attribute names
+         * @param attributes attribute values, the null values are skipped
+         * @param geometry geometry in tile coordinates
+         * @return true if the feature has been written
+         */
+        public boolean addFeature(Long id, String[] names, Object[] attributes, Geometry geometry) {
+            if (geometry == null || geometry.isEmpty()) {
+                return false;
+            }
+            int type = encodeGeometry(geometry);
+            if (commands.size == 0) {
+                return false;
+            }
+            tags.size = 0;
+            for (int i = 0; i < names.length; i++) {
+                Object value = normalize(attributes[i]);
+                if (value != null) {
+                    tags.add(index(keys, keyList, names[i]));
+                    tags.add(index(values, valueList, value));
+                }
+            }
+            feature.reset();
+            if (id != null) {
+                feature.writeTag(1, VARINT);
+                feature.writeVarint(id);
+            }
+            if (tags.size > 0) {
+                feature.writePacked(2, tags);
+            }
+            feature.writeTag(3, VARINT);
+            feature.writeVarint(type);
+            feature.writePacked(4, commands);
+            features.writeTag(2, LENGTH_DELIMITED);
+            features.writeBytes(feature);
+            featureCount++;
+            return true;
+        }
+
+        /**
+         * Write the layer into the tile, the empty layers are skipped
+         */
+        public void finish() {
+            if (featureCount == 0) {
+                return;
+            }
+            ProtobufOutput layer = new ProtobufOutput();
+            layer.writeTag(15, VARINT);
+            layer.writeVarint(2);
+            layer.writeTag(1, LENGTH_DELIMITED);
+            layer.writeString(name);
+            features.writeTo(layer);
+            for (String key : keyList) {
+                layer.writeTag(3, LENGTH_DELIMITED);
+                layer.writeString(key);
+            }
+            ProtobufOutput value = new ProtobufOutput();
+            for (Object v : valueList) {
+                value.reset();
+                writeValue(value, v);
+                layer.writeTag(4, LENGTH_DELIMITED);
+                layer.writeBytes(value);
+            }
+            layer.writeTag(5, VARINT);
+            layer.writeVarint(extent);
+            tile.writeTag(3, LENGTH_DELIMITED);
+            tile.writeBytes(layer);
+        }
+
+        /**
+         * Encode the geometry commands, only the components of the highest
+         * dimension of a collection are kept
+         *
+         * @return the MVT geometry type
+         */
+        private int encodeGeometry(Geometry geometry) {
+            commands.size = 0;
+            x = 0;
+            y = 0;
+            int dimension = geometry.getDimension();
+            if (dimension == 0) {
+                int start = commands.size;
+                commands.add(0);
+                int count = 0;
+                for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                    Geometry part = geometry.getGeometryN(i);
+                    if (part instanceof Point && !part.isEmpty()) {
+                        moveCursor(((Point) part).getCoordinate());
+                        count++;
+                    }
+                }
+                commands.set(start, command(MOVE_TO, count));
+                if (count == 0) {
+                    commands.size = 0;
+                }
+                return POINT;
+            }
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                Geometry part = geometry.getGeometryN(i);
+                if (part.getDimension() != dimension) {
+                    continue;
+                }
+                if (part instanceof LineString) {
+                    encodeLine(((LineString) part).getCoordinateSequence(), false, false);
+                } else if (part instanceof Polygon) {
+                    Polygon polygon = (Polygon) part;
+                    // the exterior ring must be dropped with its holes
+                    if (encodeLine(polygon.getExteriorRing().getCoordinateSequence(), true, true)) {
+                        for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                            encodeLine(polygon.getInteriorRingN(j).getCoordinateSequence(), true, false);
+                        }
+                    }
+                }
+            }
+            return dimension == 1 ? LINESTRING : POLYGON;
+        }
+
+        /**
+         * Encode a line or a ring, skipping the repeated points
+         *
+         * @return false if the line collapsed at the tile resolution
+         */
+        private boolean encodeLine(CoordinateSequence cs, boolean ring, boolean exterior) {
+            int n = ring ? cs.size() - 1 : cs.size();
+            if (n < (ring ? 3 : 2)) {
+                return false;
+            }
+            // MVT rings are oriented in the tile space, y going down:
+            // exterior rings have a positive area, holes a negative one
+            boolean reverse = false;
+            if (ring) {
+                double area = 0;
+                for (int i = 0; i < n; i++) {
+                    area += cs.getX(i) * cs.getY(i + 1) - cs.getX(i + 1) * cs.getY(i);
+                }
+                if (area == 0) {
+                    return false;
+                }
+                reverse = (area > 0) != exterior;
+            }
+            int startSize = commands.size;
+            int startX = x;
+            int startY = y;
+            commands.add(command(MOVE_TO, 1));
+            moveCursor(cs, reverse ? n - 1 : 0);
+            int lineTo = commands.size;
+            commands.add(0);
+            int count = 0;
+            for (int i = 1; i < n; i++) {
+                int index = reverse ? n - 1 - i : i;
+                int px = (int) Math.round(cs.getX(index));
+                int py = (int) Math.round(cs.getY(index));
+                if (px != x || py != y) {
+                    commands.add(zigzag(px - x));
+                    commands.add(zigzag(py - y));
+                    x = px;
+                    y = py;
+                    count++;
+                }
+            }
+            if (count < (ring ? 2 : 1)) {
+                // collapsed, forget it
+                commands.size = startSize;
+                x = startX;
+                y = startY;
+                return false;
+            }
+            commands.set(lineTo, command(LINE_TO, count));
+            if (ring) {
+                commands.add(command(CLOSE_PATH, 1));
+            }
+            return true;
+        }
+
+        private void moveCursor(Coordinate c) {
+            moveCursor(c.x, c.y);
+        }
+
+        private void moveCursor(CoordinateSequence cs, int index) {
+            moveCursor(cs.getX(index), cs.getY(index));
+        }
+
+        private void moveCursor(double cx, double cy) {
+            int px = (int) Math.round(cx);
+            int py = (int) Math.round(cy);
+            commands.add(zigzag(px - x));
+            commands.add(zigzag(py - y));
+            x = px;
+            y = py;
+        }
+    }
+
+    private static <T> int index(Map<T, Integer> indexes, List<T> list, T item) {
+        Integer index = indexes.get(item);
+        if (index == null) {
+            index = list.size();
+            indexes.put(item, index);
+            list.add(item);
+        }
+        return index;
+    }
+
+    /**
+     * The attribute value as String, Long, Double or Boolean
+     */
+    private static Object normalize(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean) {
+            return value;
+        } else if (value instanceof Double || value instanceof Float) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        return value.toString();
+    }
+
+    private static void writeValue(ProtobufOutput out, Object value) {
+        if (value instanceof String) {
+            out.writeTag(1, LENGTH_DELIMITED);
+            out.writeString((String) value);
+        } else if (value instanceof Double) {
+            out.writeTag(3, FIXED64);
+            out.writeFixed64(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Long) {
+            long l = (Long) value;
+            out.writeTag(6, VARINT);
+            out.writeVarint((l << 1) ^ (l >> 63));
+        } else if (value instanceof Boolean) {
+            out.writeTag(7, VARINT);
+            out.writeVarint((Boolean) value ? 1 : 0);
+        }
+    }
+
+    private static int command(int id, int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    /**
+     * Growable int array, the geometry commands and the tags of a feature
+     */
+    private static final class IntList {
+
+        int[] data = new int[64];
+        int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+            data[size++] = value;
+        }
+
+        void set(int index, int value) {
+            data[index] = value;
+        }
+    }
+
+    /**
+     * The protocol buffer wire format
+     */
+    private static final class ProtobufOutput extends ByteArrayOutputStream {
+
+        void writeTag(int field, int wireType) {
+            writeVarint((field << 3) | wireType);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeFixed64(long value) {
+            for (int i = 0; i < 8; i++) {
+                write((int) (value >>> (8 * i)) & 0xFF);
+            }
+        }
+
+        void writeString(String value) {
+            byte[] bytes;
+            try {
+                bytes = value.getBytes("UTF-8");
+            } catch (java.io.UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeBytes(ProtobufOutput message) {
+            writeVarint(message.size());
+            message.writeTo(this);
+        }
+
+        void writeTo(ProtobufOutput out) {
+            out.write(buf, 0, count);
+        }
+
+        void writePacked(int field, IntList values) {
+            int length = 0;
+            for (int i = 0; i < values.size; i++) {
+                length += varintSize(values.data[i] & 0xFFFFFFFFL);
+            }
+            writeTag(field, LENGTH_DELIMITED);
+            writeVarint(length);
+            for (int i = 0; i < values.size; i++) {
+                writeVarint(values.data[i] & 0xFFFFFFFFL);
+            }
+        }
+
+        private static int varintSize(long value) {
+            int size = 1;
+            while ((value & ~0x7FL) != 0) {
+                value >>>= 7;
+                size++;
+            }
+            return size;
+        }
+    }
+}
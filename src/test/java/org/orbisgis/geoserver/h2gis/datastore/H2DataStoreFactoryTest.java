@@ -26,15 +26,31 @@
 package org.orbisgis.geoserver.h2gis.datastore;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.Statement;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 import org.apache.commons.dbcp.BasicDataSource;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
 import org.geotools.data.jdbc.datasource.ManageableDataSource;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.data.simple.SimpleFeatureStore;
 import org.geotools.factory.Hints;
+import org.geotools.filter.text.cql2.CQL;
 import org.geotools.factory.Hints.Key;
 import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.JDBCDataStoreFactory;
@@ -43,6 +59,7 @@ import static org.geotools.jdbc.JDBCDataStoreFactory.HOST;
 import static org.geotools.jdbc.JDBCDataStoreFactory.PASSWD;
 import static org.geotools.jdbc.JDBCDataStoreFactory.PORT;
 import static org.geotools.jdbc.JDBCDataStoreFactory.USER;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertFalse;
@@ -54,6 +71,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotNull;
@@ -75,6 +93,9 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
+import org.orbisgis.geoserver.h2gis.datastore.jmx.LayerMetrics;
+import org.orbisgis.geoserver.h2gis.datastore.jmx.MBeans;
+import org.orbisgis.geoserver.h2gis.datastore.jmx.ResultCacheMonitor;
 
 public class H2DataStoreFactoryTest  {
     H2GISDataStoreFactory factory;
@@ -120,6 +141,207 @@ public class H2DataStoreFactoryTest  {
             assertTrue(url.contains("MVCC=true"));
         }
     }
+
+    @Test
+    public void testCreateDataStorePreparedStatements() throws Exception {
+        Map clonedParams = new HashMap(params);
+        clonedParams.put(H2GISDataStoreFactory.PREPARED_STATEMENTS.key, true);
+        JDBCDataStore ds = factory.createDataStore(clonedParams);
+        assertNotNull(ds);
+        assertTrue(ds.getSQLDialect() instanceof H2GISPSDialect);
+        ds.dispose();
+    }
+
+    @Test
+    public void testCreateDataStoreProfile() throws Exception {
+        Map clonedParams = new HashMap(params);
+        clonedParams.put(JDBCDataStoreFactory.DATABASE.key, "h2gisprofile");
+        clonedParams.put(H2GISDataStoreFactory.PROFILE.key, "read-mostly");
+        clonedParams.put(H2GISDataStoreFactory.AUTO_SERVER.key, false);
+        clonedParams.put(H2GISDataStoreFactory.CACHE_SIZE.key, 32768);
+        clonedParams.put(H2GISDataStoreFactory.MAX_MEMORY_ROWS.key, 10000);
+        clonedParams.put(JDBCDataStoreFactory.FETCHSIZE.key, 500);
+        JDBCDataStore ds = factory.createDataStore(clonedParams);
+        try {
+            String url = ds.getDataSource().unwrap(BasicDataSource.class).getUrl();
+            assertTrue(url.contains("AUTO_SERVER=FALSE"));
+            assertTrue(url.contains("MULTI_THREADED=TRUE"));
+            assertTrue(url.contains("CACHE_SIZE=32768"));
+            assertFalse(url.contains("CACHE_SIZE=262144"));
+            assertTrue(url.contains("MAX_MEMORY_ROWS=10000"));
+            assertEquals(500, ds.getFetchSize());
+            assertTrue(url.contains("QUERY_CACHE_SIZE=64"));
+        } finally {
+            ds.dispose();
+        }
+    }
+
+    @Test
+    public void testCreateDataStorePool() throws Exception {
+        Map clonedParams = new HashMap(params);
+        clonedParams.put(JDBCDataStoreFactory.MAXCONN.key, 7);
+        clonedParams.put(JDBCDataStoreFactory.MINCONN.key, 2);
+        clonedParams.put(JDBCDataStoreFactory.EVICTOR_TESTS_PER_RUN.key, 5);
+        JDBCDataStore ds = factory.createDataStore(clonedParams);
+        try {
+            BasicDataSource basicSource = ds.getDataSource().unwrap(BasicDataSource.class);
+            assertEquals(7, basicSource.getMaxActive());
+            assertEquals(2, basicSource.getMinIdle());
+            assertEquals(5, basicSource.getNumTestsPerEvictionRun());
+            assertTrue(basicSource.isPoolPreparedStatements());
+            // the pool statistics are published
+            H2GISDataSource source = (H2GISDataSource) ds.getDataSource();
+            ds.getDataSource().getConnection().close();
+            assertTrue(source.getMonitor().getBorrowCount() >= 1);
+            Set names = ManagementFactory.getPlatformMBeanServer().queryNames(
+                    new ObjectName(MBeans.DOMAIN + ":type=ConnectionPool,*"), null);
+            assertFalse(names.isEmpty());
+        } finally {
+            ds.dispose();
+        }
+    }
+
+    @Test
+    public void testCreateDataStoreResultCache() throws Exception {
+        Map clonedParams = new HashMap(params);
+        clonedParams.put(JDBCDataStoreFactory.DATABASE.key, "h2gisresultcache");
+        clonedParams.put(H2GISDataStoreFactory.RESULT_CACHE_SIZE.key, 10);
+        JDBCDataStore ds = factory.createDataStore(clonedParams);
+        try {
+            Connection cx = ds.getDataSource().getConnection();
+            Statement st = cx.createStatement();
+            st.execute("DROP TABLE IF EXISTS CACHED; CREATE TABLE CACHED(ID INTEGER PRIMARY KEY, THE_GEOM POINT);"
+                    + " INSERT INTO CACHED VALUES (1, 'POINT(0 0)'), (2, 'POINT(1 1)')");
+            st.close();
+            cx.close();
+            ResultCacheMonitor monitor = ((H2GISDataSource) ds.getDataSource()).getResultCache().getMonitor();
+            SimpleFeatureStore fs = (SimpleFeatureStore) ds.getFeatureSource("CACHED");
+            assertEquals(2, DataUtilities.collection(fs.getFeatures()).size());
+            long hits = monitor.getHitCount();
+            assertEquals(2, DataUtilities.collection(fs.getFeatures()).size());
+            assertTrue(monitor.getHitCount() > hits);
+            // the deletion through the store invalidates the results
+            fs.removeFeatures(CQL.toFilter("BBOX(THE_GEOM, -0.5, -0.5, 0.5, 0.5)"));
+            assertTrue(monitor.getInvalidationCount() >= 1);
+            assertEquals(1, DataUtilities.collection(fs.getFeatures()).size());
+        } finally {
+            ds.dispose();
+        }
+    }
+
+    @Test
+    public void testCreateDataStoreEstimatedCounts() throws Exception {
+        assertNotNull(H2GISEstimatedCounts.getCountedTable("SELECT count(*) FROM \"PUBLIC\".\"COUNTED\""));
+        assertNull(H2GISEstimatedCounts.getCountedTable("SELECT count(*) FROM \"PUBLIC\".\"COUNTED\" WHERE ID = 1"));
+        Map clonedParams = new HashMap(params);
+        clonedParams.put(JDBCDataStoreFactory.DATABASE.key, "h2giscounts");
+        clonedParams.put(H2GISDataStoreFactory.ESTIMATED_COUNTS.key, true);
+        JDBCDataStore ds = factory.createDataStore(clonedParams);
+        try {
+            assertTrue(((H2GISDataSource) ds.getDataSource()).isEstimatedCounts());
+            Connection cx = ds.getDataSource().getConnection();
+            Statement st = cx.createStatement();
+            st.execute("DROP TABLE IF EXISTS COUNTED; CREATE TABLE COUNTED(ID INTEGER PRIMARY KEY, THE_GEOM POINT);"
+                    + " INSERT INTO COUNTED VALUES (1, 'POINT(0 0)'), (2, 'POINT(1 1)'), (3, 'POINT(2 2)')");
+            st.close();
+            cx.close();
+            SimpleFeatureSource fs = ds.getFeatureSource("COUNTED");
+            assertEquals(3, fs.getCount(Query.ALL));
+            // only the estimate sees the rows of a transaction not committed yet
+            Connection writer = ds.getDataSource().getConnection();
+            try {
+                writer.setAutoCommit(false);
+                st = writer.createStatement();
+                st.execute("INSERT INTO COUNTED VALUES (4, 'POINT(3 3)'), (5, 'POINT(4 4)')");
+                st.close();
+                assertEquals(5, fs.getCount(Query.ALL));
+                assertEquals(3, fs.getCount(new Query("COUNTED", CQL.toFilter("BBOX(THE_GEOM, -1, -1, 10, 10)"))));
+                writer.rollback();
+            } finally {
+                writer.close();
+            }
+            assertEquals(1, fs.getCount(new Query("COUNTED", CQL.toFilter("BBOX(THE_GEOM, -0.5, -0.5, 0.5, 0.5)"))));
+        } finally {
+            ds.dispose();
+        }
+    }
+
+    @Test
+    public void testCreateDataStoreQueryMetrics() throws Exception {
+        Map clonedParams = new HashMap(params);
+        clonedParams.put(JDBCDataStoreFactory.DATABASE.key, "h2gismetrics");
+        clonedParams.put(H2GISDataStoreFactory.QUERY_METRICS.key, true);
+        JDBCDataStore ds = factory.createDataStore(clonedParams);
+        try {
+            Connection cx = ds.getDataSource().getConnection();
+            Statement st = cx.createStatement();
+            st.execute("DROP TABLE IF EXISTS MEASURED; CREATE TABLE MEASURED(ID INTEGER PRIMARY KEY, THE_GEOM POINT);"
+                    + " INSERT INTO MEASURED VALUES (1, 'POINT(0 0)'), (2, 'POINT(1 1)')");
+            st.close();
+            cx.close();
+            SimpleFeatureStore fs = (SimpleFeatureStore) ds.getFeatureSource("MEASURED");
+            assertEquals(2, DataUtilities.collection(fs.getFeatures()).size());
+            fs.removeFeatures(CQL.toFilter("BBOX(THE_GEOM, -0.5, -0.5, 0.5, 0.5)"));
+            LayerMetrics metrics = ((H2GISDataSource) ds.getDataSource()).getQueryMetrics()
+                    .getLayerMetrics("MEASURED");
+            assertTrue(metrics.getQueryCount() >= 1);
+            assertTrue(metrics.getRowCount() >= 2);
+            assertTrue(metrics.getGeometryBytes() > 0);
+            assertTrue(metrics.getWriteCount() >= 1);
+            Set names = ManagementFactory.getPlatformMBeanServer().queryNames(
+                    new ObjectName(MBeans.DOMAIN + ":type=LayerMetrics,*"), null);
+            assertFalse(names.isEmpty());
+        } finally {
+            ds.dispose();
+        }
+    }
+
+    @Test
+    public void testSlowQueryLog() throws Exception {
+        Map clonedParams = new HashMap(params);
+        clonedParams.put(JDBCDataStoreFactory.DATABASE.key, "h2gisslowqueries");
+        JDBCDataStore ds = factory.createDataStore(clonedParams);
+        final List<String> messages = new CopyOnWriteArrayList<String>();
+        final CountDownLatch logged = new CountDownLatch(1);
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+                logged.countDown();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(H2GISSlowQueryLog.class.getName());
+        logger.addHandler(handler);
+        try {
+            Connection cx = ds.getDataSource().getConnection();
+            Statement st = cx.createStatement();
+            st.execute("DROP TABLE IF EXISTS SLOW; CREATE TABLE SLOW(ID INTEGER PRIMARY KEY, THE_GEOM POINT);"
+                    + " INSERT INTO SLOW VALUES (1, 'POINT(0 0)'), (2, 'POINT(1 1)')");
+            st.close();
+            cx.close();
+            // every query is slow
+            H2GISDataSource source = (H2GISDataSource) ds.getDataSource();
+            source.setSlowQueryLog(new H2GISSlowQueryLog(source, 0));
+            SimpleFeatureSource fs = ds.getFeatureSource("SLOW");
+            Query query = new Query("SLOW", CQL.toFilter("BBOX(THE_GEOM, -0.5, -0.5, 0.5, 0.5)"));
+            assertEquals(1, DataUtilities.collection(fs.getFeatures(query)).size());
+            assertTrue(source.getSlowQueryLog().getSlowQueryCount() >= 1);
+            assertTrue(logged.await(10, TimeUnit.SECONDS));
+            assertTrue(messages.get(0).contains("SLOW"));
+            assertTrue(messages.get(0).contains("plan: "));
+        } finally {
+            logger.removeHandler(handler);
+            ds.dispose();
+        }
+    }
     
     
 //    public void testSimplifyParameterDisabled() throws Exception {
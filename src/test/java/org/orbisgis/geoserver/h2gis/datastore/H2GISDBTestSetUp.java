@@ -29,6 +29,7 @@ import com.vividsolutions.jts.io.WKTReader;
 import java.io.File;
 import java.net.URI;
 import java.util.HashMap;
+import java.util.Map;
 import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.JDBCDataStoreFactory;
 import org.junit.After;
@@ -58,10 +59,26 @@ public abstract class H2GISDBTestSetUp {
         params.put(JDBCDataStoreFactory.DBTYPE.key, "h2gis");
         params.put(JDBCDataStoreFactory.USER, "h2gis");
         params.put(JDBCDataStoreFactory.PASSWD, "h2gis");
+        setUpParameters(params);
         ds = factory.createDataStore( params );
         wKTReader = new WKTReader();
     }
     
+    /**
+     * The H2GIS dialect of the data store, whatever the statements are prepared or not
+     * @return 
+     */
+    protected H2GISDialect getH2GISDialect() {
+        return H2GISPSDialect.getH2GISDialect(ds);
+    }
+    
+    /**
+     * Let the sub classes add their own data store parameters
+     * @param params 
+     */
+    protected void setUpParameters(Map params) {
+    }
+    
     /**
      * Generate a path for the database
      * @param dbName
@@ -25,6 +25,7 @@
  */
 package org.orbisgis.geoserver.h2gis.datastore;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
@@ -32,8 +33,10 @@ import java.awt.RenderingHints;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.HashMap;
 import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -126,4 +129,106 @@ public class H2GISHintsTest {
         st.execute("drop table LANDCOVER");
     }
 
+    @Test
+    public void getFeatureSimplifiedPreserveTopology() throws SQLException, IOException, ParseException {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER, NAME CHARACTER VARYING(64),"
+                + " THE_GEOM POLYGON);"
+                + "INSERT INTO LANDCOVER VALUES(1, 'Green Forest', 'POLYGON ((200 340, 90 250, 150 160, 266 165, 310 290, 200 340))');");
+        ((H2GISDialect) ds.getSQLDialect()).setLayerSimplificationMethods(
+                H2GISDataStoreFactory.parseLayerSimplificationMethods("LANDCOVER=preserve-topology"));
+
+        // far larger than the polygon, ST_Simplify would collapse it
+        Geometry geom = getSimplifiedGeometry(1000.0);
+        assertNotNull(geom);
+        assertFalse(geom.isEmpty());
+        assertTrue(geom.isValid());
+        st.execute("drop table LANDCOVER");
+    }
+
+    @Test
+    public void getFeatureSimplifiedSnapToGrid() throws SQLException, IOException, ParseException {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER, NAME CHARACTER VARYING(64),"
+                + " THE_GEOM POLYGON);"
+                + "INSERT INTO LANDCOVER VALUES(1, 'Green Forest', 'POLYGON ((200 340, 90 250, 150 160, 266 165, 310 290, 200 340))');");
+        ((H2GISDialect) ds.getSQLDialect()).setLayerSimplificationMethods(
+                H2GISDataStoreFactory.parseLayerSimplificationMethods("LANDCOVER=snap-to-grid"));
+
+        // a grid of the distance size, not of the unit
+        Geometry geom = getSimplifiedGeometry(100.0);
+        assertNotNull(geom);
+        assertTrue(geom.isValid());
+        for (Coordinate c : geom.getCoordinates()) {
+            assertEquals(0, c.x % 100, 1e-9);
+            assertEquals(0, c.y % 100, 1e-9);
+        }
+        st.execute("drop table LANDCOVER");
+    }
+
+    @Test
+    public void getFeatureSimplifiedVertexCap() throws SQLException, IOException, ParseException {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER, NAME CHARACTER VARYING(64),"
+                + " THE_GEOM POLYGON);"
+                + "INSERT INTO LANDCOVER VALUES(1, 'Green Forest', 'POLYGON ((200 340, 90 250, 150 160, 266 165, 310 290, 200 340))');");
+        H2GISDialect dialect = (H2GISDialect) ds.getSQLDialect();
+        dialect.setLayerSimplificationMethods(
+                H2GISDataStoreFactory.parseLayerSimplificationMethods("LANDCOVER=vertex-cap"));
+        dialect.setSimplificationVertexCap(10);
+
+        // 6 vertices, under the cap
+        Geometry geom = getSimplifiedGeometry(100.0);
+        assertTrue(geom.equals(wKTReader.read("POLYGON ((200 340, 90 250, 150 160, 266 165, 310 290, 200 340))")));
+        st.execute("drop table LANDCOVER");
+    }
+
+    @Test
+    public void getFeatureFromPyramid() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER PRIMARY KEY, NAME CHARACTER VARYING(64),"
+                + " THE_GEOM POLYGON);"
+                + "INSERT INTO LANDCOVER VALUES(1, 'Green Forest', 'POLYGON ((200 340, 90 250, 150 160, 266 165, 310 290, 200 340))');");
+        H2GISPyramids pyramids = new H2GISPyramids(ds);
+        pyramids.build("LANDCOVER", 100, 10);
+        assertFalse(Arrays.asList(ds.getTypeNames()).contains("LANDCOVER_PYRAMID_0"));
+        // a user table named as a level is not hidden
+        st.execute("drop table if exists ROADS_PYRAMID_0");
+        st.execute("CREATE TABLE ROADS_PYRAMID_0 ( FID INTEGER PRIMARY KEY, THE_GEOM LINESTRING)");
+        assertTrue(Arrays.asList(ds.getTypeNames()).contains("ROADS_PYRAMID_0"));
+        st.execute("drop table ROADS_PYRAMID_0");
+
+        // the coarsest level under the distance
+        ResultSet rs = st.executeQuery("SELECT ST_SimplifyPreserveTopology(THE_GEOM, 100) FROM LANDCOVER");
+        assertTrue(rs.next());
+        Geometry expected = (Geometry) rs.getObject(1);
+        rs.close();
+        assertTrue(getSimplifiedGeometry(150.0).equalsExact(expected));
+
+        // the levels follow the edits
+        st.execute("INSERT INTO LANDCOVER VALUES(2, 'Cereal', 'POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))')");
+        rs = st.executeQuery("SELECT COUNT(*) FROM LANDCOVER_PYRAMID_1");
+        assertTrue(rs.next());
+        assertEquals(2, rs.getInt(1));
+        rs.close();
+
+        pyramids.drop("LANDCOVER");
+        rs = st.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME LIKE 'LANDCOVER_PYRAMID_%'");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        st.execute("drop table LANDCOVER");
+    }
+
+    private Geometry getSimplifiedGeometry(double distance) throws IOException {
+        Query query = new Query("LANDCOVER");
+        query.getHints().add(new RenderingHints(Hints.GEOMETRY_SIMPLIFICATION, distance));
+        SimpleFeatureSource fs = (SimpleFeatureSource) ds.getFeatureSource("LANDCOVER");
+        SimpleFeatureIterator iterator = fs.getFeatures(query).features();
+        try {
+            return (Geometry) iterator.next().getDefaultGeometry();
+        } finally {
+            iterator.close();
+        }
+    }
 }
@@ -25,23 +25,40 @@
  */
 package org.orbisgis.geoserver.h2gis.datastore;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.io.ParseException;
+import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static junit.framework.TestCase.assertNotNull;
+import org.geotools.data.FeatureReader;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.jdbc.FilterToSQL;
 import org.geotools.data.Query;
+import org.geotools.data.Transaction;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.filter.text.cql2.CQL;
 import org.geotools.filter.text.cql2.CQLException;
 import org.geotools.geometry.jts.JTS;
@@ -58,9 +75,13 @@ import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory;
 import org.opengis.filter.FilterFactory2;
 import org.opengis.filter.expression.Function;
+import org.opengis.filter.identity.FeatureId;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
 import org.opengis.filter.spatial.BBOX;
 import org.opengis.filter.spatial.Intersects;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.orbisgis.geoserver.h2gis.datastore.mvt.H2GISTileEncoder;
 
 /**
  *
@@ -128,6 +149,27 @@ public class H2GISTest extends H2GISDBTestSetUp {
         st.execute("drop table FORESTS");
     }
 
+    @Test
+    public void getGeometryColumnsMetadata() throws SQLException {
+        st.execute("drop table if exists FORESTS");
+        st.execute("CREATE TABLE FORESTS ( FID INTEGER, THE_GEOM POINT CHECK ST_SRID(THE_GEOM) = 4326);"
+                + "INSERT INTO FORESTS VALUES(1, ST_GeomFromText('POINT(1 1)', 4326));");
+        H2GISDialect dialect = getH2GISDialect();
+        Connection cx = ds.getDataSource().getConnection();
+        try {
+            dialect.resetGeometryColumns("PUBLIC");
+            assertNotNull(dialect.getGeometryColumn("PUBLIC", "FORESTS", "THE_GEOM", cx));
+            assertEquals(4326, dialect.getGeometrySRID("PUBLIC", "FORESTS", "THE_GEOM", cx).intValue());
+            // read from the cache
+            assertEquals(4326, dialect.getGeometrySRID(null, "FORESTS", "THE_GEOM", cx).intValue());
+            st.execute("drop table FORESTS");
+            dialect.resetGeometryColumns("PUBLIC");
+            assertNull(dialect.getGeometryColumn("PUBLIC", "FORESTS", "THE_GEOM", cx));
+        } finally {
+            cx.close();
+        }
+    }
+
     @Test
     public void getBoundingBox() throws SQLException, IOException, ParseException {
         st.execute("drop table if exists FORESTS");
@@ -254,6 +296,107 @@ public class H2GISTest extends H2GISDBTestSetUp {
         st.execute("drop table LANDCOVER");
     }
     
+    @Test
+    public void testBboxFilterEncoding() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER, NAME CHARACTER VARYING(64),"
+                + " THE_GEOM POINT CHECK ST_SRID(THE_GEOM) = 4326);");
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        String sql = encodeFilter("LANDCOVER", ff.bbox("THE_GEOM", 0, 0, 10, 10, "EPSG:4326"));
+        assertTrue(sql, sql.contains("&& ST_MakeEnvelope(0.0, 0.0, 10.0, 10.0, 4326)"));
+        assertFalse(sql, sql.contains("POLYGON"));
+        st.execute("drop table LANDCOVER");
+    }
+
+    @Test
+    public void testIntersectsFilterEncoding() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER, NAME CHARACTER VARYING(64),"
+                + " THE_GEOM POINT CHECK ST_SRID(THE_GEOM) = 4326);"
+                + "INSERT INTO LANDCOVER VALUES(1, 'Green Forest', ST_GeomFromText('POINT(5 5)', 4326));");
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        Intersects intersects = ff.intersects(ff.property("THE_GEOM"),
+                ff.literal(wKTReader.read("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))")));
+        String sql = encodeFilter("LANDCOVER", intersects);
+        assertTrue(sql, sql.contains("ST_GeomFromWKB(X'"));
+        assertFalse(sql, sql.contains("ST_GeomFromText"));
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM LANDCOVER " + sql);
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        rs.close();
+        st.execute("drop table LANDCOVER");
+    }
+
+    @Test
+    public void testFilterSRIDFromMetadata() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER, THE_GEOM POINT CHECK ST_SRID(THE_GEOM) = 4326);");
+        // the store reads the geometry metadata when it builds the schema
+        ds.getSchema("LANDCOVER");
+        // a feature type which does not carry the native srid
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("LANDCOVER");
+        tb.add("FID", Integer.class);
+        tb.add("THE_GEOM", Point.class);
+        FilterToSQL toSQL = getH2GISDialect().createFilterToSQL();
+        toSQL.setFeatureType(tb.buildFeatureType());
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        String sql = toSQL.encodeToString(ff.intersects(ff.property("THE_GEOM"),
+                ff.literal(wKTReader.read("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))"))));
+        assertFalse(sql, sql.contains("ST_SRID"));
+        assertTrue(sql, sql.contains("', 4326)"));
+        st.execute("drop table LANDCOVER");
+    }
+
+    @Test
+    public void testDistanceFilters() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER, THE_GEOM POINT);"
+                + "INSERT INTO LANDCOVER VALUES(1, 'POINT(0 0)');"
+                + "INSERT INTO LANDCOVER VALUES(2, 'POINT(5 0)');"
+                + "INSERT INTO LANDCOVER VALUES(3, 'POINT(20 0)');");
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        Geometry origin = wKTReader.read("POINT(0 0)");
+        Filter dwithin = ff.dwithin(ff.property("THE_GEOM"), ff.literal(origin), 6, "m");
+        Filter beyond = ff.beyond(ff.property("THE_GEOM"), ff.literal(origin), 6, "m");
+        String sql = encodeFilter("LANDCOVER", dwithin);
+        assertTrue(sql, sql.contains("&& ST_MakeEnvelope(-6.0, -6.0, 6.0, 6.0"));
+        sql = encodeFilter("LANDCOVER", beyond);
+        assertTrue(sql, sql.contains("NOT (\"THE_GEOM\" && ST_MakeEnvelope(-6.0, -6.0, 6.0, 6.0"));
+        SimpleFeatureSource fs = (SimpleFeatureSource) ds.getFeatureSource("LANDCOVER");
+        assertEquals(2, fs.getFeatures(dwithin).size());
+        assertEquals(1, fs.getFeatures(beyond).size());
+        st.execute("drop table LANDCOVER");
+    }
+
+    @Test
+    public void testDisjointFilter() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER, THE_GEOM GEOMETRY);"
+                + "INSERT INTO LANDCOVER VALUES(1, 'POINT(1 1)');"
+                + "INSERT INTO LANDCOVER VALUES(2, 'POINT(9 1)');"
+                + "INSERT INTO LANDCOVER VALUES(3, 'POINT(20 20)');");
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        // the envelope of the triangle contains the second point, not the triangle
+        Filter disjoint = ff.disjoint(ff.property("THE_GEOM"),
+                ff.literal(wKTReader.read("POLYGON((0 0, 10 10, 0 10, 0 0))")));
+        String sql = encodeFilter("LANDCOVER", disjoint);
+        assertTrue(sql, sql.contains("(NOT (\"THE_GEOM\" && ST_MakeEnvelope(0.0, 0.0, 10.0, 10.0"));
+        SimpleFeatureSource fs = (SimpleFeatureSource) ds.getFeatureSource("LANDCOVER");
+        assertEquals(2, fs.getFeatures(disjoint).size());
+        st.execute("drop table LANDCOVER");
+    }
+
+    /**
+     * Encode a filter against a table with the literal filter encoder
+     */
+    private String encodeFilter(String typeName, Filter filter) throws Exception {
+        FilterToSQL toSQL = getH2GISDialect().createFilterToSQL();
+        toSQL.setSqlNameEscape("\"");
+        toSQL.setFeatureType(ds.getSchema(typeName));
+        return toSQL.encodeToString(filter);
+    }
+
     @Test
     public void testIntersectsFilter() throws Exception {
         st.execute("drop table if exists LANDCOVER");
@@ -337,4 +480,302 @@ public class H2GISTest extends H2GISDBTestSetUp {
         assertEquals(3, fs.getCount(query));
         st.execute("drop table LANDCOVER");
     }
+
+    @Test
+    public void testBatchInsert() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER AUTO_INCREMENT PRIMARY KEY, NAME CHARACTER VARYING(64),"
+                + " THE_GEOM POINT)");
+        SimpleFeatureType schema = ds.getSchema("LANDCOVER");
+        DefaultFeatureCollection features = new DefaultFeatureCollection();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+        for (int i = 0; i < 25; i++) {
+            builder.set("NAME", "point " + i);
+            builder.set("THE_GEOM", wKTReader.read("POINT(" + i + " " + i + ")"));
+            features.add(builder.buildFeature(null));
+        }
+        H2GISFeatureInserter inserter = new H2GISFeatureInserter(ds, "LANDCOVER");
+        inserter.setBatchSize(10);
+        List<FeatureId> ids = inserter.insert(features, Transaction.AUTO_COMMIT);
+        assertEquals(25, ids.size());
+        assertEquals(25, new HashSet<FeatureId>(ids).size());
+        ResultSet rs = st.executeQuery("SELECT COUNT(*), COUNT(DISTINCT FID), MAX(ST_X(THE_GEOM)) FROM LANDCOVER");
+        assertTrue(rs.next());
+        assertEquals(25, rs.getInt(1));
+        assertEquals(25, rs.getInt(2));
+        assertEquals(24, rs.getDouble(3), 0);
+        rs.close();
+        st.execute("drop table LANDCOVER");
+    }
+
+    @Test
+    public void testSpatialIndexAudit() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER PRIMARY KEY, THE_GEOM POINT)");
+        H2GISSpatialIndexAudit audit = new H2GISSpatialIndexAudit(ds);
+        assertTrue(containsColumn(audit.findUnindexedColumns(), "LANDCOVER", "THE_GEOM"));
+        audit.createIndexes(audit.findUnindexedColumns());
+        assertTrue(getH2GISDialect().hasSpatialIndex(null, "LANDCOVER", "THE_GEOM", st.getConnection()));
+        assertFalse(containsColumn(audit.findUnindexedColumns(), "LANDCOVER", "THE_GEOM"));
+        st.execute("drop table LANDCOVER");
+    }
+
+    private static boolean containsColumn(List<String[]> columns, String table, String column) {
+        for (String[] c : columns) {
+            if (c[0].equals(table) && c[1].equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testVectorTile() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER PRIMARY KEY, NAME CHARACTER VARYING(64),"
+                + " THE_GEOM POLYGON)");
+        st.execute("INSERT INTO LANDCOVER VALUES(1, 'Forest', 'POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))')");
+        st.execute("INSERT INTO LANDCOVER VALUES(2, 'Lake', 'POLYGON((100 100, 110 100, 110 110, 100 110, 100 100))')");
+        st.execute("INSERT INTO LANDCOVER VALUES(3, 'Park', 'POLYGON((15 15, 40 15, 40 40, 15 40, 15 15))')");
+        H2GISTileEncoder encoder = new H2GISTileEncoder(ds);
+        byte[] tile = encoder.encode(new Envelope(0, 20, 0, 20), "LANDCOVER");
+        Map<Integer, List<Object>> tileMessage = decodeMessage(tile);
+        assertEquals(1, tileMessage.get(3).size());
+        Map<Integer, List<Object>> layer = decodeMessage((byte[]) tileMessage.get(3).get(0));
+        assertEquals(2L, layer.get(15).get(0));
+        assertEquals("LANDCOVER", new String((byte[]) layer.get(1).get(0), "UTF-8"));
+        assertEquals(4096L, layer.get(5).get(0));
+        assertEquals(1, layer.get(3).size());
+        assertEquals("NAME", new String((byte[]) layer.get(3).get(0), "UTF-8"));
+        List<String> values = new ArrayList<String>();
+        for (Object value : layer.get(4)) {
+            values.add(new String((byte[]) decodeMessage((byte[]) value).get(1).get(0), "UTF-8"));
+        }
+        assertFalse(values.contains("Lake"));
+        // 204.8 tile units per map unit, the y axis going down from the top
+        // of the tile, the park clipped 64 units beyond the tile
+        Map<Long, Set<String>> expectedRings = new HashMap<Long, Set<String>>();
+        expectedRings.put(1L, new HashSet<String>(Arrays.asList("0 4096", "2048 4096", "2048 2048", "0 2048")));
+        expectedRings.put(3L, new HashSet<String>(Arrays.asList("3072 1024", "4160 1024", "4160 -64", "3072 -64")));
+        Map<Long, String> expectedNames = new HashMap<Long, String>();
+        expectedNames.put(1L, "Forest");
+        expectedNames.put(3L, "Park");
+        assertEquals(2, layer.get(2).size());
+        for (Object f : layer.get(2)) {
+            Map<Integer, List<Object>> feature = decodeMessage((byte[]) f);
+            Long id = (Long) feature.get(1).get(0);
+            assertTrue(expectedRings.containsKey(id));
+            List<Long> tags = decodePacked((byte[]) feature.get(2).get(0));
+            assertEquals(2, tags.size());
+            assertEquals(Long.valueOf(0), tags.get(0));
+            assertEquals(expectedNames.get(id), values.get(tags.get(1).intValue()));
+            assertEquals(3L, feature.get(3).get(0));
+            List<Long> commands = decodePacked((byte[]) feature.get(4).get(0));
+            // MoveTo(1), LineTo(3), ClosePath(1)
+            assertEquals(11, commands.size());
+            assertEquals(Long.valueOf(1 | (1 << 3)), commands.get(0));
+            assertEquals(Long.valueOf(2 | (3 << 3)), commands.get(3));
+            assertEquals(Long.valueOf(7 | (1 << 3)), commands.get(10));
+            long x = 0;
+            long y = 0;
+            long[][] ring = new long[4][];
+            for (int i = 0; i < 4; i++) {
+                int offset = i == 0 ? 1 : 2 + 2 * i;
+                x += unzigzag(commands.get(offset));
+                y += unzigzag(commands.get(offset + 1));
+                ring[i] = new long[]{x, y};
+            }
+            Set<String> points = new HashSet<String>();
+            long area = 0;
+            for (int i = 0; i < 4; i++) {
+                points.add(ring[i][0] + " " + ring[i][1]);
+                area += ring[i][0] * ring[(i + 1) % 4][1] - ring[(i + 1) % 4][0] * ring[i][1];
+            }
+            assertEquals(expectedRings.get(id), points);
+            // exterior rings are clockwise in the tile space
+            assertTrue(area > 0);
+        }
+        assertEquals(0, encoder.encode(new Envelope(500, 520, 500, 520), "LANDCOVER").length);
+        // a self intersecting polygon does not fail the tile
+        st.execute("INSERT INTO LANDCOVER VALUES(4, 'Bow tie', 'POLYGON((0 0, 5 5, 5 0, 0 5, 0 0))')");
+        tileMessage = decodeMessage(encoder.encode(new Envelope(0, 20, 0, 20), "LANDCOVER"));
+        layer = decodeMessage((byte[]) tileMessage.get(3).get(0));
+        assertEquals(3, layer.get(2).size());
+        st.execute("drop table LANDCOVER");
+    }
+
+    /**
+     * Decode a protocol buffer message, the varint and fixed64 fields as
+     * Long, the length delimited ones as byte[]
+     */
+    private static Map<Integer, List<Object>> decodeMessage(byte[] bytes) {
+        Map<Integer, List<Object>> fields = new HashMap<Integer, List<Object>>();
+        int[] position = new int[1];
+        while (position[0] < bytes.length) {
+            long tag = readVarint(bytes, position);
+            int field = (int) (tag >>> 3);
+            Object value;
+            switch ((int) (tag & 0x7)) {
+                case 0:
+                    value = readVarint(bytes, position);
+                    break;
+                case 1:
+                    long fixed = 0;
+                    for (int i = 0; i < 8; i++) {
+                        fixed |= (bytes[position[0]++] & 0xFFL) << (8 * i);
+                    }
+                    value = fixed;
+                    break;
+                case 2:
+                    int length = (int) readVarint(bytes, position);
+                    value = Arrays.copyOfRange(bytes, position[0], position[0] + length);
+                    position[0] += length;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected wire type in tag " + tag);
+            }
+            if (!fields.containsKey(field)) {
+                fields.put(field, new ArrayList<Object>());
+            }
+            fields.get(field).add(value);
+        }
+        return fields;
+    }
+
+    private static List<Long> decodePacked(byte[] bytes) {
+        List<Long> values = new ArrayList<Long>();
+        int[] position = new int[1];
+        while (position[0] < bytes.length) {
+            values.add(readVarint(bytes, position));
+        }
+        return values;
+    }
+
+    private static long readVarint(byte[] bytes, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    @Test
+    public void testParallelReader() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        st.execute("CREATE TABLE LANDCOVER ( FID INTEGER PRIMARY KEY, VAL INTEGER, THE_GEOM POINT)");
+        st.execute("INSERT INTO LANDCOVER SELECT X, MOD(X * 7, 1000), ST_MakePoint(X, X) FROM SYSTEM_RANGE(1, 1000)");
+        H2GISParallelReader parallelReader = new H2GISParallelReader(ds, "LANDCOVER");
+        parallelReader.setPartitions(4);
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        // unsorted, every feature is read once
+        HashSet<String> ids = new HashSet<String>();
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = parallelReader.getFeatureReader(new Query("LANDCOVER"));
+        try {
+            while (reader.hasNext()) {
+                SimpleFeature feature = reader.next();
+                assertNotNull(feature.getDefaultGeometry());
+                assertTrue(ids.add(feature.getID()));
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(1000, ids.size());
+        assertTrue(ids.contains("LANDCOVER.1"));
+        // sorted and limited, same order as the sequential read
+        Query query = new Query("LANDCOVER", ff.bbox("THE_GEOM", 0, 0, 500, 500, null));
+        query.setSortBy(new SortBy[]{ff.sort("VAL", SortOrder.DESCENDING)});
+        query.setMaxFeatures(50);
+        List<String> expected = new ArrayList<String>();
+        SimpleFeatureIterator it = ds.getFeatureSource("LANDCOVER").getFeatures(query).features();
+        try {
+            while (it.hasNext()) {
+                expected.add(it.next().getID());
+            }
+        } finally {
+            it.close();
+        }
+        List<String> actual = new ArrayList<String>();
+        reader = parallelReader.getFeatureReader(query);
+        try {
+            while (reader.hasNext()) {
+                actual.add(reader.next().getID());
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(50, actual.size());
+        assertEquals(expected, actual);
+        st.execute("drop table LANDCOVER");
+        // the key range spans every long value
+        st.execute("drop table if exists KEYBOUNDS");
+        st.execute("CREATE TABLE KEYBOUNDS ( FID BIGINT PRIMARY KEY, THE_GEOM POINT)");
+        st.execute("INSERT INTO KEYBOUNDS VALUES(" + Long.MIN_VALUE + ", 'POINT(0 0)'), (0, 'POINT(1 1)'), ("
+                + Long.MAX_VALUE + ", 'POINT(2 2)')");
+        ids.clear();
+        parallelReader = new H2GISParallelReader(ds, "KEYBOUNDS");
+        parallelReader.setPartitions(4);
+        reader = parallelReader.getFeatureReader(new Query("KEYBOUNDS"));
+        try {
+            while (reader.hasNext()) {
+                assertTrue(ids.add(reader.next().getID()));
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(3, ids.size());
+        assertTrue(ids.contains("KEYBOUNDS." + Long.MAX_VALUE));
+        st.execute("drop table KEYBOUNDS");
+    }
+
+    @Test
+    public void testImportFile() throws Exception {
+        st.execute("drop table if exists LANDCOVER");
+        File file = new File(H2GISTest.class.getResource("landcover.shp").toURI());
+        assertTrue(H2GISFileImporter.canImport(file));
+        assertEquals("LANDCOVER", new H2GISFileImporter(ds).importFile(file, "LANDCOVER", false));
+        SimpleFeatureSource fs = (SimpleFeatureSource) ds.getFeatureSource("LANDCOVER");
+        assertEquals(3, fs.getCount(Query.ALL));
+        assertNotNull(fs.getSchema().getGeometryDescriptor());
+        String geometryColumn = fs.getSchema().getGeometryDescriptor().getLocalName();
+        assertTrue(getH2GISDialect().hasSpatialIndex(null, "LANDCOVER", geometryColumn,
+                st.getConnection()));
+        try {
+            new H2GISFileImporter(ds).importFile(file, "LANDCOVER", false);
+            fail("The table already exists");
+        } catch (IOException e) {
+            // expected
+        }
+        // a file that can not be read leaves the existing table
+        try {
+            new H2GISFileImporter(ds).importFile(new File(file.getParentFile(), "missing.shp"), "LANDCOVER", true);
+            fail("The file does not exist");
+        } catch (IOException e) {
+            // expected
+        }
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM LANDCOVER");
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        rs.close();
+        assertEquals("LANDCOVER", new H2GISFileImporter(ds).importFile(file, "LANDCOVER", true));
+        assertTrue(getH2GISDialect().hasSpatialIndex(null, "LANDCOVER", geometryColumn,
+                st.getConnection()));
+        // the views are seen too
+        st.execute("CREATE VIEW LANDCOVER_VIEW AS SELECT * FROM LANDCOVER");
+        try {
+            new H2GISFileImporter(ds).importFile(file, "LANDCOVER_VIEW", false);
+            fail("The view already exists");
+        } catch (IOException e) {
+            // expected
+        }
+        st.execute("drop view LANDCOVER_VIEW");
+        st.execute("drop table LANDCOVER");
+    }
 }